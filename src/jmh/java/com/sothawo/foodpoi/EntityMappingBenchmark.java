@@ -0,0 +1,85 @@
+package com.sothawo.foodpoi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Maps {@link FoodPOI} entities from the source of search hits and back to the JSON sent by the bulk indexer. The
+ * sources are parsed from JSON in the setup, so only the entity mapping is measured when reading. The source benchmarks
+ * compare parsing the JSON of a hit into an entity with the streaming parse into a {@link FoodPOILocation}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityMappingBenchmark {
+
+    private static final int POIS = 1000;
+
+    private MappingElasticsearchConverter converter;
+    private List<FoodPOI> foodPOIs;
+    private List<Document> documents;
+    private List<BytesReference> sources;
+
+    @Setup
+    public void setup() {
+        converter = new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext());
+        converter.afterPropertiesSet();
+        foodPOIs = SyntheticFoodPOIs.foodPOIs(POIS, SyntheticFoodPOIs.SEED);
+        documents = foodPOIs.stream()
+            .map(foodPOI -> Document.parse(converter.mapObject(foodPOI).toJson()))
+            .collect(Collectors.toList());
+        sources = foodPOIs.stream()
+            .map(foodPOI -> new BytesArray(converter.mapObject(foodPOI).toJson()))
+            .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        for (Document document : documents) {
+            blackhole.consume(converter.read(FoodPOI.class, document));
+        }
+    }
+
+    @Benchmark
+    public void readSource(Blackhole blackhole) {
+        for (BytesReference source : sources) {
+            blackhole.consume(converter.read(FoodPOI.class, Document.parse(source.utf8ToString())));
+        }
+    }
+
+    @Benchmark
+    public void readSourceLocation(Blackhole blackhole) throws IOException {
+        for (BytesReference source : sources) {
+            blackhole.consume(FoodPOIRepositoryCustomImpl.location("id", source));
+        }
+    }
+
+    @Benchmark
+    public void write(Blackhole blackhole) {
+        for (FoodPOI foodPOI : foodPOIs) {
+            blackhole.consume(converter.mapObject(foodPOI).toJson());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.sothawo.foodpoi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a synthetic POI file with the memory mapped parser and with the original line based parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoodPOICsvParserBenchmark {
+
+    @Param({"100000"})
+    int lines;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = SyntheticFoodPOIs.writeCsv(Files.createTempFile("foodpoi-benchmark", ".csv"), lines,
+            SyntheticFoodPOIs.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void mapped(Blackhole blackhole) throws IOException {
+        new FoodPOICsvParser().parse(file, (category, id, lat, lon, name) -> {
+            blackhole.consume(category);
+            blackhole.consume(id);
+            blackhole.consume(lat);
+            blackhole.consume(lon);
+            blackhole.consume(name);
+        });
+    }
+
+    @Benchmark
+    public void lines(Blackhole blackhole) throws IOException {
+        new FoodPOICsvParser().parseLines(file, (category, id, lat, lon, name) -> {
+            blackhole.consume(category);
+            blackhole.consume(id);
+            blackhole.consume(lat);
+            blackhole.consume(lon);
+            blackhole.consume(name);
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package com.sothawo.foodpoi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates the labels of the viewport map when panning between two overlapping viewports. {@code hashDiff} uses
+ * {@link MapLabelDiff}, {@code listDiff} is the former implementation doing {@code contains} and {@code remove} on an
+ * ArrayList. The labels are plain objects, so the benchmark does not need JavaFX.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapLabelDiffBenchmark {
+
+    @Param({"500", "5000"})
+    int labels;
+
+    /** the part of the POIs that is shown in both viewports */
+    @Param({"0.8"})
+    double overlap;
+
+    private List<FoodPOI> viewportA;
+    private List<FoodPOI> viewportB;
+    private boolean showA;
+
+    private MapLabelDiff<FoodPOI, Label> hashDiff;
+    private List<Label> listLabels;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        int shift = (int) (labels * (1 - overlap));
+        List<FoodPOI> foodPOIs = SyntheticFoodPOIs.foodPOIs(labels + shift, SyntheticFoodPOIs.SEED);
+        viewportA = foodPOIs.subList(0, labels);
+        viewportB = foodPOIs.subList(shift, labels + shift);
+        hashDiff = new MapLabelDiff<>(FoodPOI::getId,
+            (foodPOI, unusedLabel) -> unusedLabel != null ? unusedLabel.reuse(foodPOI) : new Label(foodPOI),
+            blackhole::consume, blackhole::consume, labels);
+        listLabels = new ArrayList<>();
+    }
+
+    @Benchmark
+    public void hashDiff() {
+        hashDiff.update(nextViewport());
+    }
+
+    @Benchmark
+    public void listDiff(Blackhole blackhole) {
+        List<Label> newLabels = new ArrayList<>();
+        for (FoodPOI foodPOI : nextViewport()) {
+            Label label = new Label(foodPOI);
+            newLabels.add(label);
+            if (listLabels.contains(label)) {
+                listLabels.remove(label);
+            } else {
+                blackhole.consume(label);
+            }
+        }
+        listLabels.forEach(blackhole::consume);
+        listLabels.clear();
+        listLabels.addAll(newLabels);
+    }
+
+    private List<FoodPOI> nextViewport() {
+        showA = !showA;
+        return showA ? viewportA : viewportB;
+    }
+
+    static class Label {
+        private String id;
+        private double lat;
+        private double lon;
+
+        Label(FoodPOI foodPOI) {
+            reuse(foodPOI);
+        }
+
+        Label reuse(FoodPOI foodPOI) {
+            id = foodPOI.getId();
+            lat = foodPOI.getLocation().getLat();
+            lon = foodPOI.getLocation().getLon();
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return id.equals(((Label) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.GeoDistanceOrder;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the search requests of the maps the way the repository does and renders them to JSON, which is what is sent
+ * to Elasticsearch. The queries that the repository passes to Spring Data Elasticsearch are rendered from their public
+ * properties like the request factory of Spring Data Elasticsearch does it, so no cluster is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildingBenchmark {
+
+    private static final GeoPoint KARLSRUHE = new GeoPoint(49.013517, 8.404435);
+    private static final GeoBox GEO_BOX = new GeoBox(new GeoPoint(49.05, 8.3), new GeoPoint(48.95, 8.5));
+
+    @Benchmark
+    public String nearest() {
+        return source(FoodPOIRepositoryCustomImpl.nearestQuery(KARLSRUHE, Set.of(), 5, 1.0)).toString();
+    }
+
+    @Benchmark
+    public String within() {
+        return FoodPOIRepositoryCustomImpl.locationsSource(GEO_BOX, Set.of(), 2000).toString();
+    }
+
+    @Benchmark
+    public String withinCategories() {
+        return FoodPOIRepositoryCustomImpl.locationsSource(GEO_BOX, Set.of(1, 2), 2000).toString();
+    }
+
+    @Benchmark
+    public String clusters() {
+        return FoodPOIRepositoryCustomImpl.clusterSource(GEO_BOX, Set.of(), 17, 1000).toString();
+    }
+
+    /**
+     * @return the search source of a query, with the parts of a {@link NativeSearchQuery} that the repository uses
+     */
+    private static SearchSourceBuilder source(NativeSearchQuery query) {
+        SearchSourceBuilder source = new SearchSourceBuilder().query(query.getQuery());
+        if (query.getFilter() != null) {
+            source.postFilter(query.getFilter());
+        }
+        SourceFilter sourceFilter = query.getSourceFilter();
+        if (sourceFilter != null) {
+            source.fetchSource(sourceFilter.getIncludes(), sourceFilter.getExcludes());
+        }
+        Pageable pageable = query.getPageable();
+        if (pageable.isPaged()) {
+            source.from((int) pageable.getOffset()).size(pageable.getPageSize());
+        }
+        pageable.getSort().forEach(order -> {
+            SortOrder sortOrder = order.isAscending() ? SortOrder.ASC : SortOrder.DESC;
+            if (order instanceof GeoDistanceOrder) {
+                GeoDistanceOrder geoDistanceOrder = (GeoDistanceOrder) order;
+                GeoPoint point = geoDistanceOrder.getGeoPoint();
+                source.sort(SortBuilders.geoDistanceSort(order.getProperty(), point.getLat(), point.getLon())
+                    .unit(DistanceUnit.fromString(geoDistanceOrder.getUnit()))
+                    .order(sortOrder));
+            } else {
+                source.sort(SortBuilders.fieldSort(order.getProperty()).order(sortOrder));
+            }
+        });
+        return source;
+    }
+}
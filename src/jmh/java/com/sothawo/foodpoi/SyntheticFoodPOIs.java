@@ -0,0 +1,80 @@
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible POI data for the benchmarks. The same seed always produces the same POIs, so benchmark runs
+ * on different commits work on identical data. The POIs are spread over the bounding box of Europe with clusters
+ * around a few cities, the names have a realistic length and contain some non-ASCII characters.
+ */
+final class SyntheticFoodPOIs {
+
+    static final long SEED = 4711L;
+
+    private static final String[] SYLLABLES = {"Bä", "cker", "Re", "stau", "rant", "zum", "Lö", "wen", "Ca", "fé",
+        "Pi", "zze", "ria", "Bi", "stro", "Krü", "ger", "Gast", "haus", "Bar"};
+    private static final double[][] CITIES = {{49.0135, 8.4044}, {48.1372, 11.5756}, {52.5200, 13.4050},
+        {48.8566, 2.3522}, {41.9028, 12.4964}, {40.4168, -3.7038}, {51.5074, -0.1278}, {59.3293, 18.0686}};
+
+    private SyntheticFoodPOIs() {
+    }
+
+    static List<FoodPOI> foodPOIs(int count, long seed) {
+        Random random = new Random(seed);
+        List<FoodPOI> foodPOIs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            foodPOIs.add(next(random, i));
+        }
+        return foodPOIs;
+    }
+
+    /**
+     * writes a file in the format of the OSM extract: a header line, then {@code category|id|lat|lon|name}.
+     */
+    static Path writeCsv(Path file, int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("category|id|lat|lon|name\n");
+            for (int i = 0; i < count; i++) {
+                FoodPOI foodPOI = next(random, i);
+                writer.write(foodPOI.getCategory() + "|" + foodPOI.getId() + '|' + foodPOI.getLocation().getLat() + '|'
+                    + foodPOI.getLocation().getLon() + '|' + foodPOI.getName() + '\n');
+            }
+        }
+        return file;
+    }
+
+    private static FoodPOI next(Random random, int i) {
+        double lat;
+        double lon;
+        if (random.nextInt(3) == 0) {
+            lat = 35.0 + random.nextDouble() * 36.0;
+            lon = -10.0 + random.nextDouble() * 40.0;
+        } else {
+            double[] city = CITIES[random.nextInt(CITIES.length)];
+            lat = city[0] + random.nextGaussian() * 0.1;
+            lon = city[1] + random.nextGaussian() * 0.15;
+        }
+        StringBuilder name = new StringBuilder();
+        int syllables = 2 + random.nextInt(5);
+        for (int s = 0; s < syllables; s++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            if (random.nextInt(4) == 0) {
+                name.append(' ');
+            }
+        }
+        // OSM node ids are large numbers
+        String id = Long.toString(100_000_000L + i * 17L + random.nextInt(17));
+        return FoodPOI.forIndex(id, random.nextInt(8), name.toString().trim(),
+            new GeoPoint(Math.round(lat * 1e7) / 1e7, Math.round(lon * 1e7) / 1e7));
+    }
+}
@@ -15,23 +15,48 @@
 */
 package com.sothawo.foodpoi;
 
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.elasticsearch.client.ClientConfiguration;
-import org.springframework.data.elasticsearch.client.RestClients;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveRestClients;
 import org.springframework.data.elasticsearch.config.AbstractElasticsearchConfiguration;
+import org.springframework.data.elasticsearch.core.ReactiveElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.ReactiveElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.lang.Nullable;
 import org.springframework.util.StringUtils;
 
+import java.io.Closeable;
 import java.time.Duration;
 
 /**
+ * Besides the blocking client and operations from {@link AbstractElasticsearchConfiguration} this configures the
+ * reactive client and the reactive operations used by the {@link ReactiveFoodPOIRepository}. Both clients connect to
+ * the same cluster with the same timeouts.
+ * <p>
+ * The blocking client, which sends the bulk requests and the queries of the maps, is built with the low level REST
+ * client. It distributes the requests over all configured hosts and over the nodes found by the {@link Sniffer} of
+ * the Elasticsearch client, and uses a connection pool sized for the concurrent bulk requests and queries. The
+ * reactive client fails over between the configured hosts.
+ *
  * @author P.J. Meisch (pj.meisch@sothawo.com)
  */
 @Configuration
 public class ElasticsearchConfiguration extends AbstractElasticsearchConfiguration {
 
     private final FoodPOIConfiguration foodPOIConfiguration;
+    @Nullable private Sniffer sniffer;
 
     public ElasticsearchConfiguration(FoodPOIConfiguration foodPOIConfiguration) {
         this.foodPOIConfiguration = foodPOIConfiguration;
@@ -40,18 +65,95 @@ public class ElasticsearchConfiguration extends AbstractElasticsearchConfigurati
     @Override
     @Bean
     public RestHighLevelClient elasticsearchClient() {
+        FoodPOIConfiguration.Client settings = foodPOIConfiguration.getClient();
+        HttpHost[] hosts = foodPOIConfiguration.getElasticSearchHosts().stream()
+            .map(HttpHost::create)
+            .toArray(HttpHost[]::new);
+        if (hosts.length == 0) {
+            throw new IllegalStateException("no Elasticsearch hosts configured");
+        }
+
+        SniffOnFailureListener sniffOnFailure = new SniffOnFailureListener();
+        RestClientBuilder builder = RestClient.builder(hosts)
+            // the roles of the nodes are only known after sniffing, nodes without roles are never skipped
+            .setNodeSelector(settings.isSkipDedicatedMasters() ? NodeSelector.SKIP_DEDICATED_MASTERS : NodeSelector.ANY)
+            .setRequestConfigCallback(requestConfig -> requestConfig
+                .setConnectTimeout((int) settings.getConnectTimeout().toMillis())
+                .setSocketTimeout((int) settings.getSocketTimeout().toMillis()))
+            .setHttpClientConfigCallback(httpClient -> {
+                httpClient
+                    .setMaxConnPerRoute(settings.getMaxConnectionsPerNode())
+                    .setMaxConnTotal(settings.getMaxConnections())
+                    // Elasticsearch sends no keep-alive header, without a strategy idle connections are kept forever
+                    .setKeepAliveStrategy((response, context) -> settings.getKeepAlive().toMillis())
+                    .setDefaultIOReactorConfig(IOReactorConfig.custom().setSoKeepAlive(true).build());
+                if (StringUtils.hasLength(foodPOIConfiguration.getElasticSearchProxy())) {
+                    httpClient.setProxy(HttpHost.create(foodPOIConfiguration.getElasticSearchProxy()));
+                }
+                return httpClient;
+            });
+        if (isSniffing()) {
+            builder.setFailureListener(sniffOnFailure);
+        }
+
+        RestHighLevelClient client = new RestHighLevelClient(builder);
+        if (isSniffing()) {
+            ElasticsearchNodesSniffer.Scheme scheme = "https".equals(hosts[0].getSchemeName())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                : ElasticsearchNodesSniffer.Scheme.HTTP;
+            sniffer = Sniffer.builder(client.getLowLevelClient())
+                .setSniffIntervalMillis((int) settings.getSniffInterval().toMillis())
+                .setSniffAfterFailureDelayMillis((int) settings.getSniffAfterFailureDelay().toMillis())
+                .setNodesSniffer(new ElasticsearchNodesSniffer(client.getLowLevelClient(),
+                    ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme))
+                .build();
+            sniffOnFailure.setSniffer(sniffer);
+        }
+        return client;
+    }
+
+    /**
+     * @return the sniffer of the blocking client as a bean, which depends on the client, so that it is closed before
+     * the client is closed
+     */
+    @Bean(destroyMethod = "close")
+    public Closeable elasticsearchSniffer(RestHighLevelClient elasticsearchClient) {
+        Sniffer sniffer = this.sniffer;
+        return sniffer != null ? sniffer : () -> {
+        };
+    }
+
+    private boolean isSniffing() {
+        Duration sniffInterval = foodPOIConfiguration.getClient().getSniffInterval();
+        return !sniffInterval.isZero() && !sniffInterval.isNegative();
+    }
 
+    @Bean
+    public ReactiveElasticsearchClient reactiveElasticsearchClient() {
+        return ReactiveRestClients.create(clientConfiguration());
+    }
+
+    @Bean
+    public ReactiveElasticsearchOperations reactiveElasticsearchTemplate(ElasticsearchConverter elasticsearchConverter) {
+        ReactiveElasticsearchTemplate template = new ReactiveElasticsearchTemplate(reactiveElasticsearchClient(),
+            elasticsearchConverter);
+        template.setIndicesOptions(IndicesOptions.strictExpandOpenAndForbidClosed());
+        return template;
+    }
+
+    private ClientConfiguration clientConfiguration() {
+
+        FoodPOIConfiguration.Client settings = foodPOIConfiguration.getClient();
         ClientConfiguration.TerminalClientConfigurationBuilder builder = ClientConfiguration.builder()
-            .connectedTo(foodPOIConfiguration.getElasticSearchHost());
+            .connectedTo(foodPOIConfiguration.getElasticSearchHosts().toArray(new String[0]));
 
         if (StringUtils.hasLength(foodPOIConfiguration.getElasticSearchProxy())) {
             builder = builder.withProxy(foodPOIConfiguration.getElasticSearchProxy());
         }
 
-        final ClientConfiguration clientConfiguration = builder
-            .withSocketTimeout(Duration.ofSeconds(60)) //
+        return builder
+            .withConnectTimeout(settings.getConnectTimeout()) //
+            .withSocketTimeout(settings.getSocketTimeout()) //
             .build();
-
-        return RestClients.create(clientConfiguration).rest();
     }
 }
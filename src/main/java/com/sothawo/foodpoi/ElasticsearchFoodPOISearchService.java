@@ -0,0 +1,94 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link FoodPOISearchService} sending the queries to Elasticsearch. The first query creates the index if it does not
+ * exist yet.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+@ConditionalOnProperty(prefix = "com.sothawo.foodpoi", name = "search-backend", havingValue = "elasticsearch",
+    matchIfMissing = true)
+public class ElasticsearchFoodPOISearchService implements FoodPOISearchService {
+
+    private final FoodPOIRepository repository;
+    // the index manager needs the client, which is only created when the first query is sent
+    private final ObjectProvider<FoodPOIIndexManager> indexManager;
+
+    public ElasticsearchFoodPOISearchService(FoodPOIRepository repository,
+                                             ObjectProvider<FoodPOIIndexManager> indexManager) {
+        this.repository = repository;
+        this.indexManager = indexManager;
+    }
+
+    @Override
+    public List<NearbyFoodPOI> searchNearest(GeoPoint location, int count, Set<Integer> categories) {
+        indexManager.getObject().ensureIndex();
+        return repository.searchNearest(location, categories, count).stream()
+            .map(searchHit -> new NearbyFoodPOI(searchHit.getContent(),
+                ((Number) searchHit.getSortValues().get(0)).doubleValue()))
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categories,
+                                                                      int maxResults) {
+        indexManager.getObject().ensureIndex();
+        return repository.searchLocationsWithin(geoBox, categories, maxResults);
+    }
+
+    @Override
+    public Stream<FoodPOI> streamWithin(GeoBox geoBox, Set<Integer> categories, int maxResults) {
+        indexManager.getObject().ensureIndex();
+        // scrolls through the hits, the scroll is cleared when the stream is closed
+        return repository.streamWithin(geoBox, categories)
+            .limit(maxResults)
+            .map(SearchHit::getContent);
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categories, int precision,
+                                                                 int maxClusters) {
+        indexManager.getObject().ensureIndex();
+        return repository.searchClustersIn(geoBox, categories, precision, maxClusters);
+    }
+
+    @Override
+    public List<NearbyFoodPOI> suggest(String prefix, GeoPoint location, int count) {
+        indexManager.getObject().ensureIndex();
+        // the suggester ranks by the boost of the geo context cell, the exact distance orders within the cells
+        return repository.suggest(prefix, location, count).stream()
+            .map(foodPOI -> new NearbyFoodPOI(foodPOI, EmbeddedFoodPOIIndex.distance(location.getLat(),
+                location.getLon(), foodPOI.getLocation().getLat(), foodPOI.getLocation().getLon())))
+            .sorted(Comparator.comparingDouble(NearbyFoodPOI::getDistance))
+            .collect(Collectors.toList());
+    }
+}
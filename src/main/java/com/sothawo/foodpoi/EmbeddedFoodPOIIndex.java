@@ -0,0 +1,505 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory spatial index of the POIs. The POIs are stored in primitive arrays: the coordinates as fixed point ints
+ * with 7 decimals, the category as byte and the name as index into a pool of distinct names. The arrays are sorted by
+ * the cells of a regular grid over the bounding box of the POIs, so the POIs of a cell are stored consecutively and
+ * the grid only needs the start offset of each cell.
+ * <p>
+ * For the type-ahead search the lower case names are indexed at the same word offsets as the completion field of the
+ * {@link FoodPOI}: a sorted array of name index and offset pairs is searched for the prefix, and the POIs with the
+ * matching names are searched like the nearest ones.
+ * <p>
+ * An index is immutable and can be queried from several threads, it is created with a {@link Builder}.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class EmbeddedFoodPOIIndex {
+
+    private static final double FIXED_POINT_SCALE = 1e7;
+    /** the mean earth radius used by Elasticsearch for arc distances. */
+    private static final double EARTH_RADIUS_KM = 6371.0087714;
+
+    private final int size;
+    private final int[] lats;
+    private final int[] lons;
+    private final byte[] categories;
+    private final String[] ids;
+    private final int[] nameIndices;
+    private final String[] names;
+    private final String[] lowerCaseNames;
+    /** name index in the upper and offset in the lower 16 bits, sorted by the lower case name from the offset on */
+    private final long[] suggestKeys;
+
+    private final double cellSize;
+    private final double minLat;
+    private final double minLon;
+    private final int rows;
+    private final int columns;
+    /** offset of the first POI of each cell in row major order, with the size as additional last element. */
+    private final int[] cellStarts;
+
+    private EmbeddedFoodPOIIndex(Builder builder, double cellSize) {
+        this.size = builder.size;
+        this.cellSize = cellSize;
+        this.names = builder.names.toArray(new String[0]);
+        this.lowerCaseNames = new String[names.length];
+        List<Long> keys = new ArrayList<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            lowerCaseNames[i] = names[i].toLowerCase(Locale.ROOT);
+            for (int offset : FoodPOI.suggestOffsets(lowerCaseNames[i])) {
+                if (offset <= 0xffff) {
+                    keys.add(((long) i << 16) | offset);
+                }
+            }
+        }
+        keys.sort((key1, key2) -> compare(lowerCaseNames[(int) (key1 >>> 16)], (int) (key1 & 0xffff),
+            lowerCaseNames[(int) (key2 >>> 16)], (int) (key2 & 0xffff)));
+        this.suggestKeys = keys.stream().mapToLong(Long::longValue).toArray();
+
+        int minLatE7 = Integer.MAX_VALUE, maxLatE7 = Integer.MIN_VALUE;
+        int minLonE7 = Integer.MAX_VALUE, maxLonE7 = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minLatE7 = Math.min(minLatE7, builder.lats[i]);
+            maxLatE7 = Math.max(maxLatE7, builder.lats[i]);
+            minLonE7 = Math.min(minLonE7, builder.lons[i]);
+            maxLonE7 = Math.max(maxLonE7, builder.lons[i]);
+        }
+        if (size == 0) {
+            minLatE7 = maxLatE7 = minLonE7 = maxLonE7 = 0;
+        }
+        this.minLat = minLatE7 / FIXED_POINT_SCALE;
+        this.minLon = minLonE7 / FIXED_POINT_SCALE;
+        this.rows = (int) ((maxLatE7 / FIXED_POINT_SCALE - minLat) / cellSize) + 1;
+        this.columns = (int) ((maxLonE7 / FIXED_POINT_SCALE - minLon) / cellSize) + 1;
+
+        // counting sort of the POIs by their cell
+        int[] cells = new int[size];
+        cellStarts = new int[rows * columns + 1];
+        for (int i = 0; i < size; i++) {
+            cells[i] = row(builder.lats[i] / FIXED_POINT_SCALE) * columns + column(builder.lons[i] / FIXED_POINT_SCALE);
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        int[] next = Arrays.copyOf(cellStarts, rows * columns);
+        lats = new int[size];
+        lons = new int[size];
+        categories = new byte[size];
+        ids = new String[size];
+        nameIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            int target = next[cells[i]]++;
+            lats[target] = builder.lats[i];
+            lons[target] = builder.lons[i];
+            categories[target] = builder.categories[i];
+            ids[target] = builder.ids[i];
+            nameIndices[target] = builder.nameIndices[i];
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of distinct names */
+    public int names() {
+        return names.length;
+    }
+
+    /**
+     * finds the nearest POIs by searching the grid cells in rings around the cell of the location. The search stops
+     * when the POIs outside of the searched rings cannot be nearer than the ones found.
+     *
+     * @param categoryFilter if not empty, only POIs of these categories are returned
+     */
+    public List<NearbyFoodPOI> searchNearest(GeoPoint location, int count, Set<Integer> categoryFilter) {
+        boolean[] categoryMask = categoryMask(categoryFilter);
+        return nearest(location, count, categoryMask == null ? i -> true : i -> categoryMask[categories[i] & 0xff]);
+    }
+
+    /**
+     * type-ahead search for the POIs whose lower case name or one of the following words of it starts with the lower
+     * case prefix.
+     *
+     * @return the matching POIs nearest to the location, ordered by distance
+     */
+    public List<NearbyFoodPOI> suggest(String prefix, GeoPoint location, int count) {
+        String lowerCasePrefix = prefix.toLowerCase(Locale.ROOT);
+        // binary search for the first key not less than the prefix
+        int low = 0;
+        int high = suggestKeys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(keyName(middle), keyOffset(middle), lowerCasePrefix, 0) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        BitSet matchingNames = new BitSet(names.length);
+        for (int key = low; key < suggestKeys.length && keyName(key).startsWith(lowerCasePrefix, keyOffset(key));
+             key++) {
+            matchingNames.set((int) (suggestKeys[key] >>> 16));
+        }
+        if (matchingNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return nearest(location, count, i -> matchingNames.get(nameIndices[i]));
+    }
+
+    private String keyName(int key) {
+        return lowerCaseNames[(int) (suggestKeys[key] >>> 16)];
+    }
+
+    private int keyOffset(int key) {
+        return (int) (suggestKeys[key] & 0xffff);
+    }
+
+    /**
+     * compares two strings from the given offsets on.
+     */
+    private static int compare(String string1, int offset1, String string2, int offset2) {
+        int length = Math.min(string1.length() - offset1, string2.length() - offset2);
+        for (int i = 0; i < length; i++) {
+            char c1 = string1.charAt(offset1 + i);
+            char c2 = string2.charAt(offset2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return (string1.length() - offset1) - (string2.length() - offset2);
+    }
+
+    /**
+     * finds the nearest POIs matching the filter by searching the grid cells in rings around the cell of the location.
+     */
+    private List<NearbyFoodPOI> nearest(GeoPoint location, int count, IntPredicate filter) {
+        double lat = location.getLat();
+        double lon = location.getLon();
+        int centerRow = row(lat);
+        int centerColumn = column(lon);
+
+        double[] distances = new double[count];
+        int[] found = new int[count];
+        int foundCount = 0;
+
+        int maxRing = Math.max(rows, columns);
+        for (int ring = 0; ring <= maxRing && count > 0; ring++) {
+            if (foundCount == count && minDistance(lat, ring) > distances[count - 1]) {
+                break;
+            }
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                boolean fullRow = row == centerRow - ring || row == centerRow + ring;
+                int step = fullRow ? 1 : Math.max(1, 2 * ring);
+                for (int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+                    if (column < 0 || column >= columns) {
+                        continue;
+                    }
+                    int cell = row * columns + column;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        if (!filter.test(i)) {
+                            continue;
+                        }
+                        double distance = distance(lat, lon, lats[i] / FIXED_POINT_SCALE, lons[i] / FIXED_POINT_SCALE);
+                        if (foundCount < count || distance < distances[count - 1]) {
+                            // insertion into the sorted arrays, count is small
+                            int position = Math.min(foundCount, count - 1);
+                            while (position > 0 && distances[position - 1] > distance) {
+                                distances[position] = distances[position - 1];
+                                found[position] = found[position - 1];
+                                position--;
+                            }
+                            distances[position] = distance;
+                            found[position] = i;
+                            foundCount = Math.min(count, foundCount + 1);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<NearbyFoodPOI> result = new ArrayList<>(foundCount);
+        for (int i = 0; i < foundCount; i++) {
+            result.add(new NearbyFoodPOI(foodPOI(found[i]), distances[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @param categoryFilter if not empty, only POIs of these categories are returned
+     * @return POIs within the box and the number of POIs of all categories within the box
+     */
+    public FoodPOISearchResult<FoodPOI> searchWithin(GeoBox geoBox, Set<Integer> categoryFilter, int maxResults) {
+        return within(geoBox, categoryFilter, maxResults, this::foodPOI);
+    }
+
+    /**
+     * like {@link #searchWithin(GeoBox, Set, int)}, but only with the position and category of the POIs.
+     */
+    public FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categoryFilter,
+                                                                      int maxResults) {
+        return within(geoBox, categoryFilter, maxResults, this::foodPOILocation);
+    }
+
+    private <T> FoodPOISearchResult<T> within(GeoBox geoBox, Set<Integer> categoryFilter, int maxResults,
+                                              IntFunction<T> mapper) {
+        boolean[] categoryMask = categoryMask(categoryFilter);
+        long[] categoryCounts = new long[256];
+        List<T> result = new ArrayList<>();
+        forEachWithin(geoBox, i -> {
+            categoryCounts[categories[i] & 0xff]++;
+            if ((categoryMask == null || categoryMask[categories[i] & 0xff]) && result.size() < maxResults) {
+                result.add(mapper.apply(i));
+            }
+            return true;
+        });
+        return new FoodPOISearchResult<>(result, categoryCounts(categoryCounts));
+    }
+
+    /**
+     * aggregates the POIs within a box into the cells of a geotile grid like the Elasticsearch geotile_grid
+     * aggregation with a geo_centroid sub-aggregation.
+     *
+     * @param categoryFilter if not empty, only POIs of these categories are aggregated
+     * @return the non-empty cells and the number of POIs of all categories within the box
+     */
+    public FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categoryFilter,
+                                                                 int precision, int maxClusters) {
+        boolean[] categoryMask = categoryMask(categoryFilter);
+        long[] categoryCounts = new long[256];
+        int zoom = Math.max(0, Math.min(29, precision));
+        Map<Long, double[]> cells = new HashMap<>();
+        forEachWithin(geoBox, i -> {
+            categoryCounts[categories[i] & 0xff]++;
+            if (categoryMask != null && !categoryMask[categories[i] & 0xff]) {
+                return true;
+            }
+            double lat = lats[i] / FIXED_POINT_SCALE;
+            double lon = lons[i] / FIXED_POINT_SCALE;
+            long key = ((long) ViewportTileCache.Tile.x(lon, zoom) << 32) | ViewportTileCache.Tile.y(lat, zoom);
+            double[] cell = cells.computeIfAbsent(key, k -> new double[3]);
+            cell[0]++;
+            cell[1] += lat;
+            cell[2] += lon;
+            return true;
+        });
+        List<FoodPOICluster> clusters = cells.entrySet().stream()
+            .sorted(Comparator.comparingDouble((Map.Entry<Long, double[]> entry) -> entry.getValue()[0]).reversed())
+            .limit(maxClusters)
+            .map(entry -> {
+                double[] cell = entry.getValue();
+                return new FoodPOICluster(zoom + "/" + (entry.getKey() >>> 32) + '/' + (entry.getKey() & 0xffffffffL),
+                    (long) cell[0], new GeoPoint(cell[1] / cell[0], cell[2] / cell[0]));
+            })
+            .collect(Collectors.toList());
+        return new FoodPOISearchResult<>(clusters, categoryCounts(categoryCounts));
+    }
+
+    /**
+     * @return a lookup table indexed by the unsigned value of the category byte or {@literal null} if all categories
+     * match. Categories that do not fit into a byte are ignored, there are no POIs with them.
+     */
+    @Nullable
+    private static boolean[] categoryMask(Set<Integer> categoryFilter) {
+        if (categoryFilter.isEmpty()) {
+            return null;
+        }
+        boolean[] mask = new boolean[256];
+        for (Integer category : categoryFilter) {
+            if (category >= Byte.MIN_VALUE && category <= Byte.MAX_VALUE) {
+                mask[category & 0xff] = true;
+            }
+        }
+        return mask;
+    }
+
+    private static Map<Integer, Long> categoryCounts(long[] counts) {
+        Map<Integer, Long> categoryCounts = new HashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                categoryCounts.put((int) (byte) i, counts[i]);
+            }
+        }
+        return categoryCounts;
+    }
+
+    private void forEachWithin(GeoBox geoBox, IndexVisitor visitor) {
+        int minLatE7 = toFixedPoint(geoBox.getBottomRight().getLat());
+        int maxLatE7 = toFixedPoint(geoBox.getTopLeft().getLat());
+        int minLonE7 = toFixedPoint(geoBox.getTopLeft().getLon());
+        int maxLonE7 = toFixedPoint(geoBox.getBottomRight().getLon());
+        // a box crossing the date line has a left longitude greater than the right one
+        boolean crossesDateLine = minLonE7 > maxLonE7;
+
+        int fromRow = row(geoBox.getBottomRight().getLat());
+        int toRow = row(geoBox.getTopLeft().getLat());
+        int fromColumn = crossesDateLine ? 0 : column(geoBox.getTopLeft().getLon());
+        int toColumn = crossesDateLine ? columns - 1 : column(geoBox.getBottomRight().getLon());
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int i = cellStarts[row * columns + fromColumn]; i < cellStarts[row * columns + toColumn + 1]; i++) {
+                int lonE7 = lons[i];
+                boolean lonWithin = crossesDateLine
+                    ? lonE7 >= minLonE7 || lonE7 <= maxLonE7
+                    : lonE7 >= minLonE7 && lonE7 <= maxLonE7;
+                if (lonWithin && lats[i] >= minLatE7 && lats[i] <= maxLatE7 && !visitor.visit(i)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private FoodPOI foodPOI(int i) {
+        return new FoodPOI(ids[i], (int) categories[i], names[nameIndices[i]],
+            new GeoPoint(lats[i] / FIXED_POINT_SCALE, lons[i] / FIXED_POINT_SCALE));
+    }
+
+    private FoodPOILocation foodPOILocation(int i) {
+        return new FoodPOILocation(ids[i], categories[i], lats[i] / FIXED_POINT_SCALE, lons[i] / FIXED_POINT_SCALE);
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellSize)));
+    }
+
+    private int column(double lon) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((lon - minLon) / cellSize)));
+    }
+
+    /**
+     * @return a lower bound for the distance in km from a point to the POIs in the cells of the given ring around the
+     * cell of the point. These POIs differ by at least ring - 1 cells in latitude or longitude.
+     */
+    private double minDistance(double lat, int ring) {
+        if (ring <= 1) {
+            return 0;
+        }
+        double delta = Math.toRadians((ring - 1) * cellSize);
+        double maxLat = Math.toRadians(Math.min(90.0, Math.abs(lat) + (ring + 1) * cellSize));
+        double latDistance = EARTH_RADIUS_KM * delta;
+        double lonDistance = 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.cos(maxLat) * Math.sin(delta / 2)));
+        return Math.min(latDistance, lonDistance);
+    }
+
+    /**
+     * @return the haversine distance in km.
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private static int toFixedPoint(double degrees) {
+        return (int) Math.round(degrees * FIXED_POINT_SCALE);
+    }
+
+    @FunctionalInterface
+    private interface IndexVisitor {
+        /** @return {@literal false} to stop the iteration */
+        boolean visit(int index);
+    }
+
+    /**
+     * collects the POIs for an index. The builder is a {@link FoodPOICsvParser.RecordHandler}, so a file can be parsed
+     * directly into it, but it must only be used from one thread.
+     */
+    public static class Builder implements FoodPOICsvParser.RecordHandler {
+        private int size;
+        private int[] lats = new int[1024];
+        private int[] lons = new int[1024];
+        private byte[] categories = new byte[1024];
+        private String[] ids = new String[1024];
+        private int[] nameIndices = new int[1024];
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> namePool = new HashMap<>();
+        private long rejected;
+
+        private Builder() {
+        }
+
+        /**
+         * adds a POI. POIs with a category that does not fit into a byte or with invalid coordinates are rejected.
+         */
+        @Override
+        public void accept(int category, String id, double lat, double lon, String name) {
+            if (category < Byte.MIN_VALUE || category > Byte.MAX_VALUE
+                || !(lat >= -90.0 && lat <= 90.0) || !(lon >= -180.0 && lon <= 180.0)) {
+                rejected++;
+                return;
+            }
+            if (size == lats.length) {
+                int capacity = size + (size >> 1);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                nameIndices = Arrays.copyOf(nameIndices, capacity);
+            }
+            lats[size] = toFixedPoint(lat);
+            lons[size] = toFixedPoint(lon);
+            categories[size] = (byte) category;
+            ids[size] = id;
+            nameIndices[size] = namePool.computeIfAbsent(name, key -> {
+                names.add(key);
+                return names.size() - 1;
+            });
+            size++;
+        }
+
+        /** @return the number of rejected POIs */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @param cellSize the size of the grid cells in degrees
+         */
+        public EmbeddedFoodPOIIndex build(double cellSize) {
+            return new EmbeddedFoodPOIIndex(this, cellSize);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * {@link FoodPOISearchService} answering the queries from an {@link EmbeddedFoodPOIIndex} in memory, so no
+ * Elasticsearch cluster is needed for the maps. The index is built from the configured ingest input files on startup,
+ * also with lazy initialization, so the first query does not have to wait for it.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+@ConditionalOnProperty(prefix = "com.sothawo.foodpoi", name = "search-backend", havingValue = "embedded")
+@Lazy(false)
+public class EmbeddedFoodPOISearchService implements FoodPOISearchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedFoodPOISearchService.class);
+
+    private final FoodPOIConfiguration configuration;
+    private EmbeddedFoodPOIIndex index = EmbeddedFoodPOIIndex.builder().build(1.0);
+
+    public EmbeddedFoodPOISearchService(FoodPOIConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        long start = System.currentTimeMillis();
+        FoodPOICsvParser parser = new FoodPOICsvParser();
+        EmbeddedFoodPOIIndex.Builder builder = EmbeddedFoodPOIIndex.builder();
+        for (Path file : FoodPOILoader.inputFiles(configuration.getIngest().getInputs())) {
+            parser.parse(file, builder);
+        }
+        index = builder.build(configuration.getEmbedded().getCellSize());
+        LOG.info("loaded {} POIs with {} distinct names into the embedded index in {} ms, {} malformed, {} rejected",
+            index.size(), index.names(), System.currentTimeMillis() - start, parser.getMalformedLines(),
+            builder.getRejected());
+    }
+
+    @Override
+    public List<NearbyFoodPOI> searchNearest(GeoPoint location, int count, Set<Integer> categories) {
+        return index.searchNearest(location, count, categories);
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categories,
+                                                                      int maxResults) {
+        return index.searchLocationsWithin(geoBox, categories, maxResults);
+    }
+
+    @Override
+    public Stream<FoodPOI> streamWithin(GeoBox geoBox, Set<Integer> categories, int maxResults) {
+        return index.searchWithin(geoBox, categories, maxResults).getContent().stream();
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categories, int precision,
+                                                                 int maxClusters) {
+        return index.searchClustersIn(geoBox, categories, precision, maxClusters);
+    }
+
+    @Override
+    public List<NearbyFoodPOI> suggest(String prefix, GeoPoint location, int count) {
+        return index.suggest(prefix, location, count);
+    }
+}
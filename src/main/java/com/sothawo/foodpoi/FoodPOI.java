@@ -15,29 +15,153 @@
 */
 package com.sothawo.foodpoi;
 
+import org.elasticsearch.search.suggest.completion.context.ContextMapping;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.CompletionContext;
+import org.springframework.data.elasticsearch.annotations.CompletionField;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.Mapping;
+import org.springframework.data.elasticsearch.annotations.Setting;
+import org.springframework.data.elasticsearch.core.completion.Completion;
 import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.lang.Nullable;
 
-@Document(indexName = "foodpois")
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A food POI. The settings and the mapping of the index are defined in {@code elasticsearch/foodpoi-settings.json}
+ * and {@code elasticsearch/foodpoi-mapping.json}: the mapping is strict, and the index is sorted by {@link #geoKey},
+ * so POIs that are close to each other are stored next to each other in the segments.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Document(indexName = "foodpois", createIndex = false)
+@Setting(settingPath = "/elasticsearch/foodpoi-settings.json")
+@Mapping(mappingPath = "/elasticsearch/foodpoi-mapping.json")
 public class FoodPOI {
+
+    /** the name of the geo context of the {@link #suggest} field */
+    public static final String LOCATION_CONTEXT = "location";
+    /** the geohash precision of the geo context, the suggestions can be boosted for cells of up to this level */
+    public static final int LOCATION_CONTEXT_PRECISION = 6;
+    /** the maximum number of suggest inputs for a name */
+    private static final int MAX_SUGGEST_INPUTS = 4;
+    /** the number of bits of latitude and longitude in the {@link #geoKey} */
+    private static final int GEO_KEY_BITS = 31;
+
     @Id
     private String id;
     @Field(type = FieldType.Text)
+    @Nullable
     private String name;
     @Field(type = FieldType.Integer)
     private Integer category;
     private GeoPoint location;
+    /**
+     * the type-ahead suggestions for the name with the location as geo context. The field is derived from the name and
+     * has no accessors, so it is not part of the JSON of the REST API. It is only set for entities that are written to
+     * the index, see {@link #forIndex(String, Integer, String, GeoPoint)}.
+     */
+    @CompletionField(contexts = @CompletionContext(name = LOCATION_CONTEXT, type = ContextMapping.Type.GEO,
+        precision = "" + LOCATION_CONTEXT_PRECISION, path = "location"))
+    @Nullable
+    private Completion suggest;
+    /**
+     * the Morton code of the location, the sort field of the index. Like {@link #suggest} it is derived, has no
+     * accessors and is only set for entities that are written to the index, it is not stored in the source.
+     */
+    @Field(type = FieldType.Long, index = false)
+    @Nullable
+    private Long geoKey;
 
-    public FoodPOI(String id, Integer category, String name, GeoPoint location) {
+    public FoodPOI(String id, Integer category, @Nullable String name, GeoPoint location) {
         this.id = id;
         this.name = name;
         this.category = category;
         this.location = location;
     }
 
+    /**
+     * @return a POI with the derived fields {@link #suggest} and {@link #geoKey}, which are only needed when the POI is
+     * written to the index. The constructor, which is also used when reading POIs, does not compute them.
+     */
+    static FoodPOI forIndex(String id, Integer category, @Nullable String name, GeoPoint location) {
+        FoodPOI foodPOI = new FoodPOI(id, category, name, location);
+        foodPOI.suggest = new Completion(suggestInputs(name));
+        foodPOI.geoKey = geoKey(location);
+        return foodPOI;
+    }
+
+    @Nullable
+    static Long geoKey(@Nullable GeoPoint location) {
+        return location != null ? geoKey(location.getLat(), location.getLon()) : null;
+    }
+
+    /**
+     * @return the Morton code (Z-order) of the point: the bits of longitude and latitude, each quantized to 31 bits,
+     * interleaved starting with longitude like in a geohash. Points with a common prefix are in the same cell, and the
+     * key is never negative.
+     */
+    static long geoKey(double lat, double lon) {
+        return spread(quantize(lon, 180.0)) << 1 | spread(quantize(lat, 90.0));
+    }
+
+    private static long quantize(double value, double range) {
+        long max = (1L << GEO_KEY_BITS) - 1;
+        long quantized = (long) ((value + range) / (2 * range) * (1L << GEO_KEY_BITS));
+        return Math.max(0, Math.min(max, quantized));
+    }
+
+    /**
+     * @return the lower 32 bits of the value spread to the even bits of a long
+     */
+    private static long spread(long value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * @return the positions in the name where a suggest input starts: the start of the name and of its next words, so
+     * "Café am Schloss" is also suggested for "schloss". A word starts at a letter or digit that follows any other
+     * character except an apostrophe, so "Café-Bar" is suggested for "bar" and "Pizza/Pasta" for "pasta", but
+     * "Mario's" not for "s".
+     */
+    static int[] suggestOffsets(String name) {
+        int[] offsets = new int[MAX_SUGGEST_INPUTS];
+        int count = 0;
+        for (int i = 0; i < name.length() && count < MAX_SUGGEST_INPUTS; i++) {
+            if (Character.isLetterOrDigit(name.charAt(i)) && (i == 0 || isWordSeparator(name.charAt(i - 1)))) {
+                offsets[count++] = i;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(offsets, 0, result, 0, count);
+        return result;
+    }
+
+    private static boolean isWordSeparator(char c) {
+        return !Character.isLetterOrDigit(c) && c != '\'' && c != '\u2019';
+    }
+
+    static List<String> suggestInputs(@Nullable String name) {
+        if (name == null) {
+            return new ArrayList<>();
+        }
+        List<String> inputs = new ArrayList<>(MAX_SUGGEST_INPUTS);
+        for (int offset : suggestOffsets(name)) {
+            inputs.add(name.substring(offset));
+        }
+        return inputs;
+    }
+
     public String getId() {
         return id;
     }
@@ -46,11 +170,12 @@ public class FoodPOI {
         this.id = id;
     }
 
+    @Nullable
     public String getName() {
         return name;
     }
 
-    public void setName(String name) {
+    public void setName(@Nullable String name) {
         this.name = name;
     }
 
@@ -16,14 +16,34 @@
 package com.sothawo.foodpoi;
 
 import javafx.application.Application;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.data.elasticsearch.ElasticsearchDataAutoConfiguration;
+import org.springframework.core.env.Profiles;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
 
 @SpringBootApplication(exclude = ElasticsearchDataAutoConfiguration.class)
 public class FoodPOIApplication {
 
+    /** profile for running the ingest and the API without the JavaFX user interface */
+    public static final String HEADLESS = "headless";
+
     public static void main(String[] args) {
-        Application.launch(SpringbootJavaFxApplication.class, args);
+        if (isHeadless(args)) {
+            SpringApplication.run(FoodPOIApplication.class, args);
+        } else {
+            Application.launch(SpringbootJavaFxApplication.class, args);
+        }
     }
 
+    /**
+     * @return {@literal true} if the headless profile is activated by the arguments, a system property or an
+     * environment variable
+     */
+    static boolean isHeadless(String[] args) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        return environment.acceptsProfiles(Profiles.of(HEADLESS));
+    }
 }
@@ -0,0 +1,575 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends {@link FoodPOI} documents to Elasticsearch with bulk requests. The number of documents and the size of a bulk
+ * request as well as the number of concurrently executing bulk requests are taken from the {@link
+ * FoodPOIConfiguration.Ingest} settings. When all allowed bulk requests are in flight, adding a document blocks the
+ * caller, so parsing cannot run ahead of indexing. Documents rejected by the cluster because of a full write queue
+ * (429, es_rejected_execution_exception) are retried individually with an exponential backoff, also when other
+ * documents of the same bulk request failed for a different reason; only these other failures are not retried. A bulk
+ * request rejected as a whole is retried in the same way. A document can be added with an {@link Acknowledgement} that
+ * is called when the bulk request containing it has finished. With {@link FoodPOIConfiguration.Ingest#isCompressBulk()}
+ * the bodies of the bulk requests are sent gzip compressed.
+ * <p>
+ * The duration of the bulk requests is recorded in the timer {@code foodpoi.ingest.bulk}, their number of documents
+ * and size in the summaries {@code foodpoi.ingest.bulk.documents} and {@code foodpoi.ingest.bulk.bytes}, and the
+ * processed documents in the counter {@code foodpoi.ingest.documents}, tagged with the result.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class FoodPOIBulkIndexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FoodPOIBulkIndexer.class);
+
+    private static final long CLOSE_TIMEOUT_MINUTES = 10;
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchOperations operations;
+    private final FoodPOIConfiguration.Ingest settings;
+
+    private final Timer bulkTimer;
+    private final Timer failedBulkTimer;
+    private final DistributionSummary bulkDocuments;
+    private final DistributionSummary bulkBytes;
+    private final Counter indexedDocuments;
+    private final Counter failedDocuments;
+
+    public FoodPOIBulkIndexer(RestHighLevelClient client, ElasticsearchOperations operations,
+                              FoodPOIConfiguration configuration, MeterRegistry meterRegistry) {
+        this.client = client;
+        this.operations = operations;
+        this.settings = configuration.getIngest();
+
+        this.bulkTimer = bulkTimer(meterRegistry, "success");
+        this.failedBulkTimer = bulkTimer(meterRegistry, "failure");
+        this.bulkDocuments = DistributionSummary.builder("foodpoi.ingest.bulk.documents")
+            .description("number of documents in a bulk request")
+            .register(meterRegistry);
+        this.bulkBytes = DistributionSummary.builder("foodpoi.ingest.bulk.bytes")
+            .description("estimated size of a bulk request")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.indexedDocuments = documentCounter(meterRegistry, "indexed");
+        this.failedDocuments = documentCounter(meterRegistry, "failed");
+    }
+
+    private static Timer bulkTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("foodpoi.ingest.bulk")
+            .description("duration of the bulk requests including retries")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private static Counter documentCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("foodpoi.ingest.documents")
+            .description("documents indexed or deleted with bulk requests")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    /**
+     * opens a new session for indexing documents into the index of the {@link FoodPOI} entity.
+     *
+     * @return the session, must be closed to send the remaining documents
+     */
+    public Session open() {
+        return open(operations.getIndexCoordinatesFor(FoodPOI.class).getIndexName());
+    }
+
+    /**
+     * opens a new session for indexing documents into the given index.
+     *
+     * @param indexName name of the index or alias to write to
+     * @return the session, must be closed to send the remaining documents
+     */
+    public Session open(String indexName) {
+        return new Session(indexName);
+    }
+
+    /**
+     * sends a bulk request with a gzip compressed body with the low level client, the high level client cannot
+     * compress request bodies. The response is parsed like the high level client does.
+     */
+    private void bulkCompressedAsync(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+        Request request;
+        try {
+            request = compressedBulkRequest(bulkRequest);
+        } catch (IOException | RuntimeException e) {
+            listener.onFailure(e);
+            return;
+        }
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                BulkResponse bulkResponse;
+                try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                    DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response.getEntity().getContent())) {
+                    bulkResponse = BulkResponse.fromXContent(parser);
+                } catch (IOException | RuntimeException e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                listener.onFailure(exception);
+            }
+        });
+    }
+
+    /**
+     * builds the body of a bulk request and compresses it. Only index and delete requests are supported, these are
+     * the ones the sessions create.
+     */
+    static Request compressedBulkRequest(BulkRequest bulkRequest) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(body, 64 * 1024)) {
+            for (DocWriteRequest<?> docWriteRequest : bulkRequest.requests()) {
+                if (!(docWriteRequest instanceof IndexRequest || docWriteRequest instanceof DeleteRequest)) {
+                    throw new IllegalArgumentException("unsupported bulk operation " + docWriteRequest.opType());
+                }
+                try (XContentBuilder action = XContentFactory.jsonBuilder()) {
+                    action.startObject()
+                        .startObject(docWriteRequest.opType().getLowercase())
+                        .field("_index", docWriteRequest.index())
+                        .field("_id", docWriteRequest.id())
+                        .endObject()
+                        .endObject();
+                    BytesReference.bytes(action).writeTo(gzip);
+                }
+                gzip.write('\n');
+                if (docWriteRequest instanceof IndexRequest) {
+                    ((IndexRequest) docWriteRequest).source().writeTo(gzip);
+                    gzip.write('\n');
+                }
+            }
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(body.toByteArray(), ContentType.create("application/x-ndjson"));
+        entity.setContentEncoding("gzip");
+        Request request = new Request("POST", "/_bulk");
+        request.setEntity(entity);
+        return request;
+    }
+
+    /**
+     * @return {@literal true} if a whole bulk request was rejected because of a full write queue
+     */
+    static boolean isRejection(Exception e) {
+        if (e instanceof ResponseException) {
+            return ((ResponseException) e).getResponse().getStatusLine().getStatusCode()
+                == RestStatus.TOO_MANY_REQUESTS.getStatus();
+        }
+        return ExceptionsHelper.status(ExceptionsHelper.unwrapCause(e)) == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * sends a bulk request and sends the documents that were rejected because of a full write queue again after the
+     * delays of a backoff policy. The BulkProcessor only retries when all failed documents of a bulk request were
+     * rejected, so one document failing for a different reason would turn the rejected ones into failures as well.
+     * The listener gets a response with the item of the last attempt for each document of the original request. A
+     * request that is rejected as a whole is sent again with the same backoff.
+     */
+    static class RetryingBulk {
+
+        private final BiConsumer<BulkRequest, ActionListener<BulkResponse>> consumer;
+        private final BackoffPolicy backoffPolicy;
+        private final ScheduledExecutorService scheduler;
+        /** the requests with a scheduled retry, a retry is only sent or aborted by the thread removing it */
+        private final Set<Attempts> scheduled = ConcurrentHashMap.newKeySet();
+
+        RetryingBulk(BiConsumer<BulkRequest, ActionListener<BulkResponse>> consumer, BackoffPolicy backoffPolicy,
+                     ScheduledExecutorService scheduler) {
+            this.consumer = consumer;
+            this.backoffPolicy = backoffPolicy;
+            this.scheduler = scheduler;
+        }
+
+        void execute(BulkRequest request, ActionListener<BulkResponse> listener) {
+            new Attempts(request, listener).send(request, null);
+        }
+
+        /**
+         * fails the documents of the retries that are scheduled but not yet sent, so their acknowledgements are called.
+         * Retries that are scheduled afterwards fail at once when the scheduler is shut down.
+         */
+        void abort() {
+            for (Attempts attempts : scheduled) {
+                if (scheduled.remove(attempts)) {
+                    attempts.fail(attempts.retryPositions,
+                        new IllegalStateException("bulk session closed before the retry was sent"));
+                }
+            }
+        }
+
+        private class Attempts {
+
+            private final BulkRequest request;
+            private final ActionListener<BulkResponse> listener;
+            private final BulkItemResponse[] items;
+            private final Iterator<TimeValue> delays = backoffPolicy.iterator();
+            private long tookMillis;
+            @Nullable private volatile int[] retryPositions;
+
+            private Attempts(BulkRequest request, ActionListener<BulkResponse> listener) {
+                this.request = request;
+                this.listener = listener;
+                this.items = new BulkItemResponse[request.numberOfActions()];
+            }
+
+            /**
+             * @param bulkRequest the request to send
+             * @param positions the positions of the documents of the request in the original request, {@literal
+             * null} for the original request
+             */
+            private void send(BulkRequest bulkRequest, @Nullable int[] positions) {
+                consumer.accept(bulkRequest, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        tookMillis += response.getTook().millis();
+                        BulkItemResponse[] responseItems = response.getItems();
+                        for (int i = 0; i < responseItems.length; i++) {
+                            items[positions == null ? i : positions[i]] = responseItems[i];
+                        }
+                        retryRejected();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        if (isRejection(e) && delays.hasNext()) {
+                            schedule(bulkRequest, positions);
+                            return;
+                        }
+                        fail(positions, e);
+                    }
+                });
+            }
+
+            private void fail(@Nullable int[] positions, Exception e) {
+                if (positions == null) {
+                    listener.onFailure(e);
+                    return;
+                }
+                for (int position : positions) {
+                    DocWriteRequest<?> docWriteRequest = request.requests().get(position);
+                    items[position] = new BulkItemResponse(position, docWriteRequest.opType(),
+                        new BulkItemResponse.Failure(docWriteRequest.index(), docWriteRequest.type(),
+                            docWriteRequest.id(), e));
+                }
+                respond();
+            }
+
+            private void retryRejected() {
+                List<Integer> rejected = new ArrayList<>();
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].isFailed() && items[i].status() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejected.add(i);
+                    }
+                }
+                if (rejected.isEmpty() || !delays.hasNext()) {
+                    respond();
+                    return;
+                }
+                BulkRequest retryRequest = new BulkRequest();
+                int[] positions = new int[rejected.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = rejected.get(i);
+                    retryRequest.add(request.requests().get(positions[i]));
+                }
+                schedule(retryRequest, positions);
+            }
+
+            private void schedule(BulkRequest bulkRequest, @Nullable int[] positions) {
+                TimeValue delay = delays.next();
+                LOG.debug("retrying {} rejected documents in {}", bulkRequest.numberOfActions(), delay);
+                retryPositions = positions;
+                scheduled.add(this);
+                try {
+                    scheduler.schedule(() -> {
+                        if (scheduled.remove(this)) {
+                            send(bulkRequest, positions);
+                        }
+                    }, delay.millis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    if (scheduled.remove(this)) {
+                        fail(positions, e);
+                    }
+                }
+            }
+
+            private void respond() {
+                listener.onResponse(new BulkResponse(items, tookMillis));
+            }
+        }
+    }
+
+    /**
+     * callback for a document whose bulk request has finished, including all retries.
+     */
+    @FunctionalInterface
+    public interface Acknowledgement {
+        void acknowledged(String id, boolean success);
+    }
+
+    public class Session implements AutoCloseable {
+
+        private final String indexName;
+        private final ElasticsearchConverter converter = operations.getElasticsearchConverter();
+        private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "foodpoi-bulk-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final RetryingBulk retryingBulk;
+        private final BulkProcessor bulkProcessor;
+
+        private final Map<DocWriteRequest<?>, Acknowledgement> acknowledgements = new ConcurrentHashMap<>();
+        private final Map<Long, Long> bulkStarts = new ConcurrentHashMap<>();
+
+        private final AtomicLong added = new AtomicLong();
+        private final AtomicLong bulks = new AtomicLong();
+        private final AtomicLong indexed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        private Session(String indexName) {
+            this.indexName = indexName;
+
+            BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                    bulkStarts.put(executionId, System.nanoTime());
+                    bulkDocuments.record(request.numberOfActions());
+                    bulkBytes.record(request.estimatedSizeInBytes());
+                    LOG.debug("sending bulk #{} with {} documents, {} bytes", executionId, request.numberOfActions(),
+                        request.estimatedSizeInBytes());
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                    Set<String> failedIds = new HashSet<>();
+                    for (BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) {
+                            if (failedIds.isEmpty()) {
+                                LOG.warn("bulk #{}: document {} failed: {}", executionId, item.getId(),
+                                    item.getFailureMessage());
+                            }
+                            failedIds.add(item.getId());
+                        }
+                    }
+                    failed.addAndGet(failedIds.size());
+                    long total = indexed.addAndGet(response.getItems().length - failedIds.size());
+                    bulks.incrementAndGet();
+                    recordBulk(executionId, bulkTimer);
+                    indexedDocuments.increment(response.getItems().length - failedIds.size());
+                    failedDocuments.increment(failedIds.size());
+                    acknowledge(request, failedIds::contains);
+                    LOG.debug("bulk #{} finished in {}, {} failures, {} documents indexed so far", executionId,
+                        response.getTook(), failedIds.size(), total);
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    failed.addAndGet(request.numberOfActions());
+                    bulks.incrementAndGet();
+                    recordBulk(executionId, failedBulkTimer);
+                    failedDocuments.increment(request.numberOfActions());
+                    acknowledge(request, id -> true);
+                    LOG.error("bulk #{} with {} documents failed", executionId, request.numberOfActions(), failure);
+                }
+            };
+
+            BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkConsumer = settings.isCompressBulk()
+                ? FoodPOIBulkIndexer.this::bulkCompressedAsync
+                : (request, bulkListener) -> client.bulkAsync(request, RequestOptions.DEFAULT, bulkListener);
+            retryingBulk = new RetryingBulk(bulkConsumer, BackoffPolicy.exponentialBackoff(
+                TimeValue.timeValueMillis(settings.getRetryDelay().toMillis()), settings.getMaxRetries()),
+                retryScheduler);
+            bulkProcessor = BulkProcessor.builder(retryingBulk::execute, listener)
+                .setConcurrentRequests(settings.getConcurrentRequests())
+                .setBulkActions(settings.getBulkActions())
+                .setBulkSize(new ByteSizeValue(settings.getBulkSize().toBytes(), ByteSizeUnit.BYTES))
+                .setFlushInterval(TimeValue.timeValueMillis(settings.getFlushInterval().toMillis()))
+                .setBackoffPolicy(BackoffPolicy.noBackoff())
+                .build();
+        }
+
+        /**
+         * adds a document to the current bulk request. Blocks when the maximum number of concurrent bulk requests is
+         * in flight.
+         *
+         * @param foodPOI the document to index
+         */
+        public void index(FoodPOI foodPOI) {
+            index(foodPOI, null);
+        }
+
+        /**
+         * adds a document to the current bulk request. Blocks when the maximum number of concurrent bulk requests is
+         * in flight.
+         *
+         * @param foodPOI the document to index
+         * @param acknowledgement called when the bulk request containing the document has finished, may be {@literal
+         * null}
+         */
+        public void index(FoodPOI foodPOI, @Nullable Acknowledgement acknowledgement) {
+            IndexRequest request = new IndexRequest(indexName)
+                .id(foodPOI.getId())
+                .source(converter.mapObject(foodPOI).toJson(), XContentType.JSON);
+            if (acknowledgement != null) {
+                acknowledgements.put(request, acknowledgement);
+            }
+            bulkProcessor.add(request);
+            added.incrementAndGet();
+        }
+
+        /**
+         * adds the deletion of a document to the current bulk request. Blocks when the maximum number of concurrent
+         * bulk requests is in flight.
+         *
+         * @param id the id of the document to delete
+         * @param acknowledgement called when the bulk request containing the deletion has finished, may be {@literal
+         * null}
+         */
+        public void delete(String id, @Nullable Acknowledgement acknowledgement) {
+            DeleteRequest request = new DeleteRequest(indexName, id);
+            if (acknowledgement != null) {
+                acknowledgements.put(request, acknowledgement);
+            }
+            bulkProcessor.add(request);
+            added.incrementAndGet();
+        }
+
+        private void recordBulk(long executionId, Timer timer) {
+            Long start = bulkStarts.remove(executionId);
+            if (start != null) {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void acknowledge(BulkRequest request, Predicate<String> failed) {
+            if (acknowledgements.isEmpty()) {
+                return;
+            }
+            for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                Acknowledgement acknowledgement = acknowledgements.remove(docWriteRequest);
+                if (acknowledgement != null) {
+                    acknowledgement.acknowledged(docWriteRequest.id(), !failed.test(docWriteRequest.id()));
+                }
+            }
+        }
+
+        /** @return the number of documents added to or deleted in this session */
+        public long getAdded() {
+            return added.get();
+        }
+
+        /** @return the number of bulk requests that have finished */
+        public long getBulks() {
+            return bulks.get();
+        }
+
+        /** @return the number of documents that were successfully indexed or deleted */
+        public long getIndexed() {
+            return indexed.get();
+        }
+
+        /** @return the number of documents that could not be indexed, even after retries */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * sends the remaining documents and waits until all bulk requests have finished.
+         */
+        @Override
+        public void close() {
+            try {
+                if (!bulkProcessor.awaitClose(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    LOG.warn("bulk requests did not finish within {} minutes", CLOSE_TIMEOUT_MINUTES);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // after a timeout or an interrupt retries may still be scheduled, their documents are failed
+                retryingBulk.abort();
+                retryScheduler.shutdownNow();
+            }
+        }
+    }
+}
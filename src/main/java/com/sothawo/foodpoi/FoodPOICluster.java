@@ -0,0 +1,62 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+/**
+ * A cell of a geotile grid containing POIs, positioned at the centroid of the POIs.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOICluster {
+
+    private final String key;
+    private final long count;
+    private final GeoPoint location;
+
+    /**
+     * @param key the key of the grid cell in the form zoom/x/y
+     * @param count the number of POIs in the cell
+     * @param location the centroid of the POIs in the cell
+     */
+    public FoodPOICluster(String key, long count, GeoPoint location) {
+        this.key = key;
+        this.count = count;
+        this.location = location;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public GeoPoint getLocation() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return "FoodPOICluster{" +
+            "key='" + key + '\'' +
+            ", count=" + count +
+            ", location=" + location +
+            '}';
+    }
+}
@@ -16,7 +16,19 @@
 package com.sothawo.foodpoi;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.DeprecatedConfigurationProperty;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author P.J. Meisch (pj.meisch@sothawo.com)
@@ -24,8 +36,11 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 @ConfigurationProperties(prefix = "com.sothawo.foodpoi")
 public class FoodPOIConfiguration {
-    /** host:port of the Elasticsearch cluster */
-    private String elasticSearchHost;
+    /** host:port of the nodes of the Elasticsearch cluster the clients connect to initially */
+    private List<String> elasticSearchHosts = new ArrayList<>();
+
+    /** host:port of the Elasticsearch node, replaced by {@link #elasticSearchHosts} and added to them */
+    @Nullable private String elasticSearchHost;
 
     /** host:port of a proxy to use */
     private String elasticSearchProxy;
@@ -33,11 +48,54 @@ public class FoodPOIConfiguration {
     /** Bing Maps API key */
     private String bingMapsApiKey = null;
 
+    /** the implementation of the map queries */
+    private SearchBackend searchBackend = SearchBackend.ELASTICSEARCH;
+
+    /** settings of the connections to the Elasticsearch cluster */
+    private final Client client = new Client();
+
+    /** settings for the embedded search backend */
+    private final Embedded embedded = new Embedded();
+
+    /** settings for loading the POI data into Elasticsearch */
+    private final Ingest ingest = new Ingest();
+
+    /** limits of the query endpoints */
+    private final Api api = new Api();
+
+    /** settings of the nearest search in Elasticsearch */
+    private final Nearest nearest = new Nearest();
+
+    /** settings for the POIs shown in the viewport map */
+    private final Viewport viewport = new Viewport();
+
+    /**
+     * @return the configured hosts, preceded by the host of the deprecated single host property if that is set and
+     * not in the list
+     */
+    public List<String> getElasticSearchHosts() {
+        if (elasticSearchHost == null || elasticSearchHosts.contains(elasticSearchHost)) {
+            return elasticSearchHosts;
+        }
+        List<String> hosts = new ArrayList<>(elasticSearchHosts.size() + 1);
+        hosts.add(elasticSearchHost);
+        hosts.addAll(elasticSearchHosts);
+        return hosts;
+    }
+
+    public void setElasticSearchHosts(List<String> elasticSearchHosts) {
+        this.elasticSearchHosts = elasticSearchHosts;
+    }
+
+    @Deprecated
+    @Nullable
+    @DeprecatedConfigurationProperty(replacement = "com.sothawo.foodpoi.elastic-search-hosts")
     public String getElasticSearchHost() {
         return elasticSearchHost;
     }
 
-    public void setElasticSearchHost(String elasticSearchHost) {
+    @Deprecated
+    public void setElasticSearchHost(@Nullable String elasticSearchHost) {
         this.elasticSearchHost = elasticSearchHost;
     }
 
@@ -56,4 +114,613 @@ public class FoodPOIConfiguration {
     public void setBingMapsApiKey(String bingMapsApiKey) {
         this.bingMapsApiKey = bingMapsApiKey;
     }
+
+    public SearchBackend getSearchBackend() {
+        return searchBackend;
+    }
+
+    public void setSearchBackend(SearchBackend searchBackend) {
+        this.searchBackend = searchBackend;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public Embedded getEmbedded() {
+        return embedded;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public Api getApi() {
+        return api;
+    }
+
+    public Nearest getNearest() {
+        return nearest;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public enum SearchBackend {
+        /** queries are sent to Elasticsearch */
+        ELASTICSEARCH,
+        /** the ingest input files are loaded into memory and queried there, see {@link EmbeddedFoodPOIIndex} */
+        EMBEDDED
+    }
+
+    public static class Client {
+        /** timeout for establishing a connection to a node */
+        private Duration connectTimeout = Duration.ofSeconds(10);
+
+        /** timeout for waiting for data on a connection */
+        private Duration socketTimeout = Duration.ofSeconds(60);
+
+        /** maximum number of connections to one node */
+        private int maxConnectionsPerNode = 16;
+
+        /** maximum number of connections to all nodes */
+        private int maxConnections = 64;
+
+        /** time an idle connection is kept for reuse, should be shorter than the idle timeout of load balancers */
+        private Duration keepAlive = Duration.ofMinutes(1);
+
+        /**
+         * interval in which the nodes of the cluster are read, 0 disables sniffing. Off by default, as the sniffed
+         * publish addresses replace the configured hosts and may not be reachable, like those of a docker container.
+         */
+        private Duration sniffInterval = Duration.ZERO;
+
+        /** delay after a failed request before the nodes of the cluster are read */
+        private Duration sniffAfterFailureDelay = Duration.ofSeconds(30);
+
+        /** whether requests are not sent to master eligible nodes that hold no data, needs sniffing */
+        private boolean skipDedicatedMasters = true;
+
+        public Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public Duration getSocketTimeout() {
+            return socketTimeout;
+        }
+
+        public void setSocketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+        }
+
+        public int getMaxConnectionsPerNode() {
+            return maxConnectionsPerNode;
+        }
+
+        public void setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+            this.maxConnectionsPerNode = maxConnectionsPerNode;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Duration getKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public Duration getSniffInterval() {
+            return sniffInterval;
+        }
+
+        public void setSniffInterval(Duration sniffInterval) {
+            this.sniffInterval = sniffInterval;
+        }
+
+        public Duration getSniffAfterFailureDelay() {
+            return sniffAfterFailureDelay;
+        }
+
+        public void setSniffAfterFailureDelay(Duration sniffAfterFailureDelay) {
+            this.sniffAfterFailureDelay = sniffAfterFailureDelay;
+        }
+
+        public boolean isSkipDedicatedMasters() {
+            return skipDedicatedMasters;
+        }
+
+        public void setSkipDedicatedMasters(boolean skipDedicatedMasters) {
+            this.skipDedicatedMasters = skipDedicatedMasters;
+        }
+    }
+
+    public static class Embedded {
+        /** size of the grid cells of the embedded index in degrees */
+        private double cellSize = 0.05;
+
+        public double getCellSize() {
+            return cellSize;
+        }
+
+        public void setCellSize(double cellSize) {
+            this.cellSize = cellSize;
+        }
+    }
+
+    public static class Ingest {
+        /** the files with the POI data; for a directory all the *.csv files in it are loaded */
+        private List<Path> inputs = new ArrayList<>(Collections.singletonList(Paths.get("europe-latest-food.csv")));
+
+        /** number of threads parsing the input */
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        /** size of the parts the input files are split into for parallel parsing */
+        private DataSize rangeSize = DataSize.ofMegabytes(64);
+
+        /** directory where the checkpoints of the ingest jobs are stored */
+        private Path checkpointDirectory = Paths.get("ingest-checkpoints");
+
+        /** file with the content fingerprints of the loaded POIs, used for delta loads */
+        private Path fingerprintFile = Paths.get("foodpoi-fingerprints.bin");
+
+        /** the parser implementation used to read the input */
+        private Parser parser = Parser.MAPPED;
+
+        /** number of segments a reindexed index is force merged to before it is activated, 0 to skip the merge */
+        private int forceMergeSegments = 1;
+
+        /** whether the indices that were replaced by a reindex are deleted */
+        private boolean deleteOldIndices = true;
+
+        /** number of bulk requests that may be in flight at the same time */
+        private int concurrentRequests = 4;
+
+        /** maximum number of documents in one bulk request */
+        private int bulkActions = 5000;
+
+        /** maximum size of the body of one bulk request */
+        private DataSize bulkSize = DataSize.ofMegabytes(5);
+
+        /** time after which a partially filled bulk request is sent */
+        private Duration flushInterval = Duration.ofSeconds(5);
+
+        /** delay before documents rejected by the cluster are retried the first time, doubled on each retry */
+        private Duration retryDelay = Duration.ofMillis(100);
+
+        /** number of retries for documents rejected by the cluster */
+        private int maxRetries = 8;
+
+        /** whether the bodies of the bulk requests are sent gzip compressed */
+        private boolean compressBulk = false;
+
+        public List<Path> getInputs() {
+            return inputs;
+        }
+
+        public void setInputs(List<Path> inputs) {
+            this.inputs = inputs;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public DataSize getRangeSize() {
+            return rangeSize;
+        }
+
+        public void setRangeSize(DataSize rangeSize) {
+            this.rangeSize = rangeSize;
+        }
+
+        public Path getCheckpointDirectory() {
+            return checkpointDirectory;
+        }
+
+        public void setCheckpointDirectory(Path checkpointDirectory) {
+            this.checkpointDirectory = checkpointDirectory;
+        }
+
+        public Path getFingerprintFile() {
+            return fingerprintFile;
+        }
+
+        public void setFingerprintFile(Path fingerprintFile) {
+            this.fingerprintFile = fingerprintFile;
+        }
+
+        public Parser getParser() {
+            return parser;
+        }
+
+        public void setParser(Parser parser) {
+            this.parser = parser;
+        }
+
+        public int getForceMergeSegments() {
+            return forceMergeSegments;
+        }
+
+        public void setForceMergeSegments(int forceMergeSegments) {
+            this.forceMergeSegments = forceMergeSegments;
+        }
+
+        public boolean isDeleteOldIndices() {
+            return deleteOldIndices;
+        }
+
+        public void setDeleteOldIndices(boolean deleteOldIndices) {
+            this.deleteOldIndices = deleteOldIndices;
+        }
+
+        public int getConcurrentRequests() {
+            return concurrentRequests;
+        }
+
+        public void setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+        }
+
+        public int getBulkActions() {
+            return bulkActions;
+        }
+
+        public void setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+        }
+
+        public DataSize getBulkSize() {
+            return bulkSize;
+        }
+
+        public void setBulkSize(DataSize bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public Duration getRetryDelay() {
+            return retryDelay;
+        }
+
+        public void setRetryDelay(Duration retryDelay) {
+            this.retryDelay = retryDelay;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public boolean isCompressBulk() {
+            return compressBulk;
+        }
+
+        public void setCompressBulk(boolean compressBulk) {
+            this.compressBulk = compressBulk;
+        }
+
+        public enum Parser {
+            /** reads the memory mapped file and parses the fields from the bytes */
+            MAPPED,
+            /** reads decoded lines and splits them with a regular expression, files are not split for parallel parsing */
+            LINES
+        }
+    }
+
+    public static class Api {
+        /** maximum number of POIs a nearest query may request */
+        private int maxNearest = 100;
+
+        /** maximum width and height of the box of a within query in degrees */
+        private double maxBoxSize = 2.0;
+
+        /** maximum number of POIs returned by a within query */
+        private int maxWithin = 10_000;
+
+        /** maximum number of POIs a suggest query may request */
+        private int maxSuggestions = 20;
+
+        public int getMaxNearest() {
+            return maxNearest;
+        }
+
+        public void setMaxNearest(int maxNearest) {
+            this.maxNearest = maxNearest;
+        }
+
+        public double getMaxBoxSize() {
+            return maxBoxSize;
+        }
+
+        public void setMaxBoxSize(double maxBoxSize) {
+            this.maxBoxSize = maxBoxSize;
+        }
+
+        public int getMaxWithin() {
+            return maxWithin;
+        }
+
+        public void setMaxWithin(int maxWithin) {
+            this.maxWithin = maxWithin;
+        }
+
+        public int getMaxSuggestions() {
+            return maxSuggestions;
+        }
+
+        public void setMaxSuggestions(int maxSuggestions) {
+            this.maxSuggestions = maxSuggestions;
+        }
+    }
+
+    public static class Nearest {
+        /** radius in km of the first search in an area where the density of the POIs is not yet known */
+        private double startRadius = 1.0;
+
+        /** factor by which the radius grows when the search finds less POIs than requested */
+        private double radiusGrowth = 2.0;
+
+        /** maximum radius in km, beyond it the search sorts all POIs by distance */
+        private double maxRadius = 200.0;
+
+        /** factor applied to the radius estimated from the density, so most searches need only one request */
+        private double radiusMargin = 1.5;
+
+        /** maximum number of areas for which the density is kept */
+        private int densityCells = 4096;
+
+        public double getStartRadius() {
+            return startRadius;
+        }
+
+        public void setStartRadius(double startRadius) {
+            this.startRadius = startRadius;
+        }
+
+        public double getRadiusGrowth() {
+            return radiusGrowth;
+        }
+
+        public void setRadiusGrowth(double radiusGrowth) {
+            this.radiusGrowth = radiusGrowth;
+        }
+
+        public double getMaxRadius() {
+            return maxRadius;
+        }
+
+        public void setMaxRadius(double maxRadius) {
+            this.maxRadius = maxRadius;
+        }
+
+        public double getRadiusMargin() {
+            return radiusMargin;
+        }
+
+        public void setRadiusMargin(double radiusMargin) {
+            this.radiusMargin = radiusMargin;
+        }
+
+        public int getDensityCells() {
+            return densityCells;
+        }
+
+        public void setDensityCells(int densityCells) {
+            this.densityCells = densityCells;
+        }
+    }
+
+    public static class Viewport {
+        /** below this zoom level the viewport map shows clusters instead of single POIs */
+        private int clusterBelowZoom = 12;
+
+        /**
+         * the clusters are cells of the map tiles at the current zoom level plus this value, 3 splits a tile into 8 x 8
+         * cells
+         */
+        private int clusterPrecisionOffset = 3;
+
+        /** maximum number of clusters shown in the viewport map */
+        private int maxClusters = 1000;
+
+        /** maximum number of single POIs shown in the viewport map */
+        private int maxPois = 2000;
+
+        /**
+         * maximum number of POIs loaded with one query for a cached tile, a tile with more POIs is loaded in quarters;
+         * must not exceed the max_result_window of the index
+         */
+        private int tileQuerySize = 10_000;
+
+        /** size in pixels of the screen cells the POIs of the viewport map are thinned out in */
+        private int decimationCellSize = 32;
+
+        /** maximum number of POIs shown per screen cell, 0 shows all POIs */
+        private int decimationMaxPerCell = 1;
+
+        /** priority of the categories when POIs are thinned out, higher first; categories without one have 0 */
+        private Map<Integer, Integer> categoryPriorities = new HashMap<>();
+
+        /**
+         * the viewport data is cached in map tiles of the current zoom level minus this value, 2 makes a cached tile
+         * cover 4 x 4 map tiles
+         */
+        private int cacheTileZoomOffset = 2;
+
+        /** maximum number of tiles in the viewport cache */
+        private int cacheTiles = 256;
+
+        /** time after which a cached tile is loaded again */
+        private Duration cacheMaxAge = Duration.ofMinutes(5);
+
+        /** maximum number of tiles loaded in the background after the viewport was loaded, 0 disables prefetching */
+        private int prefetchTiles = 16;
+
+        /** maximum number of tiles loaded in the background at the same time */
+        private int prefetchConcurrency = 2;
+
+        /** time for which the pan velocity is extrapolated to find the area shown next */
+        private Duration prefetchLookahead = Duration.ofSeconds(1);
+
+        /** maximum time for the queries of the maps, the result of a query that takes longer is not shown */
+        private Duration queryTimeout = Duration.ofSeconds(5);
+
+        /** names shown for the categories in the category filter, categories without a name are shown as number */
+        private Map<Integer, String> categoryNames = new HashMap<>();
+
+        public int getClusterBelowZoom() {
+            return clusterBelowZoom;
+        }
+
+        public void setClusterBelowZoom(int clusterBelowZoom) {
+            this.clusterBelowZoom = clusterBelowZoom;
+        }
+
+        public int getClusterPrecisionOffset() {
+            return clusterPrecisionOffset;
+        }
+
+        public void setClusterPrecisionOffset(int clusterPrecisionOffset) {
+            this.clusterPrecisionOffset = clusterPrecisionOffset;
+        }
+
+        public int getMaxClusters() {
+            return maxClusters;
+        }
+
+        public void setMaxClusters(int maxClusters) {
+            this.maxClusters = maxClusters;
+        }
+
+        public int getMaxPois() {
+            return maxPois;
+        }
+
+        public void setMaxPois(int maxPois) {
+            this.maxPois = maxPois;
+        }
+
+        public int getTileQuerySize() {
+            return tileQuerySize;
+        }
+
+        public void setTileQuerySize(int tileQuerySize) {
+            this.tileQuerySize = tileQuerySize;
+        }
+
+        public int getDecimationCellSize() {
+            return decimationCellSize;
+        }
+
+        public void setDecimationCellSize(int decimationCellSize) {
+            this.decimationCellSize = decimationCellSize;
+        }
+
+        public int getDecimationMaxPerCell() {
+            return decimationMaxPerCell;
+        }
+
+        public void setDecimationMaxPerCell(int decimationMaxPerCell) {
+            this.decimationMaxPerCell = decimationMaxPerCell;
+        }
+
+        public Map<Integer, Integer> getCategoryPriorities() {
+            return categoryPriorities;
+        }
+
+        public void setCategoryPriorities(Map<Integer, Integer> categoryPriorities) {
+            this.categoryPriorities = categoryPriorities;
+        }
+
+        public int getCacheTileZoomOffset() {
+            return cacheTileZoomOffset;
+        }
+
+        public void setCacheTileZoomOffset(int cacheTileZoomOffset) {
+            this.cacheTileZoomOffset = cacheTileZoomOffset;
+        }
+
+        public int getCacheTiles() {
+            return cacheTiles;
+        }
+
+        public void setCacheTiles(int cacheTiles) {
+            this.cacheTiles = cacheTiles;
+        }
+
+        public Duration getCacheMaxAge() {
+            return cacheMaxAge;
+        }
+
+        public void setCacheMaxAge(Duration cacheMaxAge) {
+            this.cacheMaxAge = cacheMaxAge;
+        }
+
+        public int getPrefetchTiles() {
+            return prefetchTiles;
+        }
+
+        public void setPrefetchTiles(int prefetchTiles) {
+            this.prefetchTiles = prefetchTiles;
+        }
+
+        public int getPrefetchConcurrency() {
+            return prefetchConcurrency;
+        }
+
+        public void setPrefetchConcurrency(int prefetchConcurrency) {
+            this.prefetchConcurrency = prefetchConcurrency;
+        }
+
+        public Duration getPrefetchLookahead() {
+            return prefetchLookahead;
+        }
+
+        public void setPrefetchLookahead(Duration prefetchLookahead) {
+            this.prefetchLookahead = prefetchLookahead;
+        }
+
+        public Duration getQueryTimeout() {
+            return queryTimeout;
+        }
+
+        public void setQueryTimeout(Duration queryTimeout) {
+            this.queryTimeout = queryTimeout;
+        }
+
+        public Map<Integer, String> getCategoryNames() {
+            return categoryNames;
+        }
+
+        public void setCategoryNames(Map<Integer, String> categoryNames) {
+            this.categoryNames = categoryNames;
+        }
+    }
 }
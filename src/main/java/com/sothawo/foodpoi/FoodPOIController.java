@@ -15,71 +15,268 @@
 */
 package com.sothawo.foodpoi;
 
-import io.reactivex.Observable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
 import org.springframework.data.elasticsearch.core.geo.GeoPoint;
-import org.springframework.util.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/foodpoi")
 public class FoodPOIController {
 
-    private static final Logger LOG = LoggerFactory.getLogger(FoodPOIController.class);
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    /** number of elements written to the response at once */
+    private static final int EMIT_BATCH_SIZE = 256;
 
-    private final FoodPOIRepository repository;
+    private final FoodPOILoader loader;
+    private final FoodPOISearchService searchService;
+    @Nullable private final ReactiveFoodPOISearchService reactiveSearchService;
+    private final FoodPOIExporter exporter;
+    private final FoodPOIConfiguration.Api settings;
+    private final ObjectMapper objectMapper;
 
-    public FoodPOIController(FoodPOIRepository repository) {
-        this.repository = repository;
+    public FoodPOIController(FoodPOILoader loader, FoodPOISearchService searchService,
+                             ObjectProvider<ReactiveFoodPOISearchService> reactiveSearchService,
+                             FoodPOIExporter exporter, FoodPOIConfiguration configuration, ObjectMapper objectMapper) {
+        this.loader = loader;
+        this.searchService = searchService;
+        // only available with the Elasticsearch backend
+        this.reactiveSearchService = reactiveSearchService.getIfAvailable();
+        this.exporter = exporter;
+        this.settings = configuration.getApi();
+        this.objectMapper = objectMapper;
     }
 
+    /**
+     * starts loading the POI files in the background.
+     *
+     * @param resume the id of a job that should be resumed from its checkpoint
+     * @param mode {@link IngestJob.Mode#DELTA} to only send the changes since the last load,
+     *     {@link IngestJob.Mode#REINDEX} to load into a new index that replaces the current one when it is finished
+     * @return the started job, its progress is available from {@link #job(String)}
+     */
     @GetMapping("/load")
-    public void load() throws IOException, URISyntaxException {
-
-        AtomicLong count = new AtomicLong();
-        Stream<String> lines = Files.lines(Paths.get("europe-latest-food.csv"));
-        Observable.fromIterable(lines::iterator)
-            .skip(1)
-            .filter(StringUtils::hasLength)
-            .map(this::getFoodPOI)
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .window(1000)
-            .map(foodPOIObservable -> foodPOIObservable.toList().subscribe(foodPOIS -> {
-                count.addAndGet(foodPOIS.size());
-                LOG.info("saving {} POIs now {}", foodPOIS.size(), count.get());
-                repository.saveAll(foodPOIS);
-            }))
-            .blockingSubscribe();
+    public IngestJob load(@RequestParam(required = false) @Nullable String resume,
+                          @RequestParam(defaultValue = "FULL") IngestJob.Mode mode) throws IOException {
+        try {
+            return loader.start(resume, mode);
+        } catch (NoSuchFileException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "no checkpoint for job " + resume);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
     }
 
-    private Optional<FoodPOI> getFoodPOI(String line) {
-        try {
-            final String[] fields = line.split("\\|");
-            if (fields.length != 5) {
-                throw new IllegalArgumentException("no 5 fields in line");
-            }
-            Integer category = Integer.valueOf(fields[0]);
-            String id = fields[1];
-            double lat = Double.parseDouble(fields[2]);
-            double lon = Double.parseDouble(fields[3]);
-            String name = fields[4];
-            GeoPoint location = new GeoPoint(lat, lon);
-            return Optional.of(new FoodPOI(id, category, name, location));
-        } catch (Exception e) {
-            LOG.error("error in line: \"{}\", {}", line, e.getMessage());
-            return Optional.empty();
+    @GetMapping("/jobs")
+    public Collection<IngestJob> jobs() {
+        return loader.getJobs();
+    }
+
+    @GetMapping("/jobs/{id}")
+    public IngestJob job(@PathVariable String id) {
+        return loader.getJob(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * finds the POIs nearest to a location, ordered by distance. The result is a JSON array or, when requested with
+     * {@code Accept: application/x-ndjson}, one JSON object per line. With the Elasticsearch backend the query is
+     * sent with the reactive client and no request thread waits for the result.
+     *
+     * @param k the number of POIs, at most {@code api.maxNearest}
+     * @param category if set, only POIs of these categories are returned, the parameter may be repeated
+     */
+    @GetMapping(path = "/nearest", produces = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<ResponseBodyEmitter> nearest(@RequestParam double lat, @RequestParam double lon,
+                                                       @RequestParam(defaultValue = "5") int k,
+                                                       @RequestParam(required = false) @Nullable Set<Integer> category,
+                                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                       @Nullable String accept) {
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid location");
+        }
+        if (k < 1 || k > settings.getMaxNearest()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and "
+                + settings.getMaxNearest());
+        }
+        GeoPoint location = new GeoPoint(lat, lon);
+        Set<Integer> categories = category != null ? category : Collections.emptySet();
+        Flux<NearbyFoodPOI> nearest = reactiveSearchService != null
+            ? reactiveSearchService.searchNearest(location, k, categories)
+            : Flux.defer(() -> Flux.fromIterable(searchService.searchNearest(location, k, categories)))
+                .subscribeOn(Schedulers.boundedElastic());
+        return emit(nearest, accept);
+    }
+
+    /**
+     * type-ahead search for POI names, meant to be called on each keystroke. The POIs whose name or one of the
+     * following words of the name start with the prefix are returned, the ones near the location first.
+     *
+     * @param prefix the beginning of the name, at least one character
+     * @param lat latitude of the location, like the center of the map
+     * @param lon longitude of the location
+     * @param k the number of POIs, at most {@code api.maxSuggestions}
+     */
+    @GetMapping(path = "/suggest", produces = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<ResponseBodyEmitter> suggest(@RequestParam String prefix, @RequestParam double lat,
+                                                       @RequestParam double lon,
+                                                       @RequestParam(defaultValue = "10") int k,
+                                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                       @Nullable String accept) {
+        if (prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "prefix must not be empty");
+        }
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid location");
+        }
+        if (k < 1 || k > settings.getMaxSuggestions()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and "
+                + settings.getMaxSuggestions());
         }
+        GeoPoint location = new GeoPoint(lat, lon);
+        // the reactive client cannot send suggest requests
+        Flux<NearbyFoodPOI> suggestions = Flux.defer(() -> Flux.fromIterable(searchService.suggest(prefix, location, k)))
+            .subscribeOn(Schedulers.boundedElastic());
+        return emit(suggestions, accept);
+    }
+
+    /**
+     * finds POIs within a box. The POIs are written while they are fetched, as JSON array or, when requested with
+     * {@code Accept: application/x-ndjson}, one JSON object per line. With the Elasticsearch backend the query is
+     * sent with the reactive client and no request thread waits for the result.
+     *
+     * @param limit the maximum number of POIs, at most {@code api.maxWithin}
+     * @param category if set, only POIs of these categories are returned, the parameter may be repeated
+     */
+    @GetMapping(path = "/within", produces = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<ResponseBodyEmitter> within(@RequestParam double top, @RequestParam double left,
+                                                      @RequestParam double bottom, @RequestParam double right,
+                                                      @RequestParam(required = false) @Nullable Integer limit,
+                                                      @RequestParam(required = false) @Nullable Set<Integer> category,
+                                                      @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                      @Nullable String accept) {
+        if (top < -90 || top > 90 || bottom < -90 || bottom > 90 || left < -180 || left > 180 || right < -180
+            || right > 180 || bottom > top) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid box");
+        }
+        // a box crossing the date line has a left longitude greater than the right one
+        double width = left <= right ? right - left : right + 360 - left;
+        if (top - bottom > settings.getMaxBoxSize() || width > settings.getMaxBoxSize()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "the box must not be larger than "
+                + settings.getMaxBoxSize() + " degrees");
+        }
+        int maxResults = limit != null ? limit : settings.getMaxWithin();
+        if (maxResults < 1 || maxResults > settings.getMaxWithin()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and "
+                + settings.getMaxWithin());
+        }
+        GeoBox geoBox = new GeoBox(new GeoPoint(top, left), new GeoPoint(bottom, right));
+        Set<Integer> categories = category != null ? category : Collections.emptySet();
+        Flux<FoodPOI> foodPOIs = reactiveSearchService != null
+            ? reactiveSearchService.searchWithin(geoBox, categories, maxResults)
+            : Flux.fromStream(() -> searchService.streamWithin(geoBox, categories, maxResults))
+                .subscribeOn(Schedulers.boundedElastic());
+        return emit(foodPOIs, accept);
+    }
+
+    /**
+     * exports all POIs of the index as a file download.
+     *
+     * @param format {@link FoodPOIExporter.Format#CSV} to write the format of the input files,
+     *     {@link FoodPOIExporter.Format#NDJSON} for one JSON object per line
+     * @param gzip whether the file is gzip compressed
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+        @RequestParam(defaultValue = "CSV") FoodPOIExporter.Format format,
+        @RequestParam(defaultValue = "true") boolean gzip) {
+
+        String fileName = "foodpois" + (format == FoodPOIExporter.Format.CSV ? ".csv" : ".ndjson")
+            + (gzip ? ".gz" : "");
+        StreamingResponseBody body = outputStream -> {
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 64 * 1024);
+                exporter.export(format, gzipOutputStream);
+                gzipOutputStream.finish();
+            } else {
+                exporter.export(format, outputStream);
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(gzip ? MediaType.parseMediaType("application/gzip")
+                : format == FoodPOIExporter.Format.CSV ? new MediaType("text", "plain", StandardCharsets.UTF_8)
+                : APPLICATION_NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + '"')
+            .body(body);
+    }
+
+    /**
+     * writes the elements as JSON array or as newline delimited JSON while they are emitted. The request thread is
+     * released; the elements are written in batches on the bounded elastic scheduler, as writing to the response may
+     * block and must not run on the event loop of the reactive client. The subscription is cancelled when the
+     * response fails or times out.
+     */
+    private ResponseEntity<ResponseBodyEmitter> emit(Flux<?> elements, @Nullable String accept) {
+        boolean ndjson = accept != null && MediaType.parseMediaTypes(accept).stream()
+            .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(APPLICATION_NDJSON));
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        Disposable subscription = json(elements, ndjson, objectMapper)
+            .buffer(EMIT_BATCH_SIZE)
+            .map(chunks -> String.join("", chunks))
+            .publishOn(Schedulers.boundedElastic())
+            .subscribe(chunk -> {
+                try {
+                    emitter.send(chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, emitter::completeWithError, emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+        return ResponseEntity.ok()
+            .contentType(ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+            .body(emitter);
+    }
+
+    /**
+     * @return the elements serialized as the chunks of a JSON array or as JSON lines
+     */
+    static Flux<String> json(Flux<?> elements, boolean ndjson, ObjectMapper objectMapper) {
+        Flux<String> chunks = elements.index((index, element) -> {
+            try {
+                String json = objectMapper.writeValueAsString(element);
+                return ndjson ? json + '\n' : index == 0 ? json : ',' + json;
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ndjson ? chunks : Flux.concat(Flux.just("["), chunks, Flux.just("]"));
     }
 }
@@ -0,0 +1,411 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Parser for the POI dump files. Each line has the format {@code category|id|lat|lon|name}, the first line of a file is
+ * a header and is skipped.
+ * <p>
+ * {@link #parse(Path, RecordHandler)} maps the file into memory window by window and scans the bytes for the line and
+ * field delimiters. The category and the coordinates are parsed directly from the bytes, only the id and the name are
+ * decoded into Strings. {@link #parseLines(Path, RecordHandler)} is the original implementation reading decoded lines
+ * and splitting them with a regular expression.
+ * <p>
+ * For parallel processing a file can be {@link #split(Path, long) split} into ranges of complete lines that are
+ * parsed concurrently with the same parser instance.
+ * <p>
+ * Lines that cannot be parsed are not logged but counted, see {@link #getMalformedLines()}. An instance is meant for
+ * one parse run, the counters are not reset.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOICsvParser {
+
+    /** size of the file window that is mapped at once. */
+    private static final long WINDOW_SIZE = 128L * 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte DELIMITER = '|';
+
+    /** powers of ten that are exactly representable as double. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+    /** mantissas up to this value are exactly representable as double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    static {
+        double power = 1.0;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10.0;
+        }
+    }
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder malformedLines = new LongAdder();
+
+    /**
+     * callback for the parsed records.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void accept(int category, String id, double lat, double lon, String name);
+    }
+
+    /**
+     * splits a file into ranges of about the given size. The ranges end directly after a line break, so each range
+     * contains complete lines and can be parsed independently of the others.
+     *
+     * @param file the file to split
+     * @param rangeSize the target size of the ranges
+     * @return the ranges covering the whole file in ascending order
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Range> split(Path file, long rangeSize) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long start = 0;
+            while (start < size) {
+                long end = start + rangeSize;
+                if (end >= size) {
+                    end = size;
+                } else {
+                    end = nextLineStart(channel, end, size, buffer);
+                }
+                ranges.add(new Range(file, start, end));
+                start = end;
+            }
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer buffer)
+        throws IOException {
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == NEWLINE) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * parses a file through a memory mapped {@link FileChannel}.
+     *
+     * @param path the file to parse
+     * @param handler called for each valid record
+     * @throws IOException if the file cannot be read
+     */
+    public void parse(Path path, RecordHandler handler) throws IOException {
+        parse(new Range(path, 0, Files.size(path)), handler);
+    }
+
+    /**
+     * parses a range of a file through a memory mapped {@link FileChannel}. The range must start at the beginning of
+     * a line and end after a line break or at the end of the file. This method may be called concurrently for
+     * different ranges.
+     *
+     * @param range the range to parse
+     * @param handler called for each valid record
+     * @throws IOException if the file cannot be read
+     */
+    public void parse(Range range, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(range.getFile(), StandardOpenOption.READ)) {
+            long end = range.getEnd();
+            byte[] scratch = new byte[MAX_LINE_LENGTH];
+            boolean header = range.getStart() == 0;
+            long position = range.getStart();
+            while (position < end) {
+                long windowSize = Math.min(WINDOW_SIZE, end - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                boolean lastWindow = position + windowSize == end;
+                int limit = (int) windowSize;
+                if (!lastWindow) {
+                    // process complete lines only, the rest is mapped with the next window
+                    while (limit > 0 && buffer.get(limit - 1) != NEWLINE) {
+                        limit--;
+                    }
+                    if (limit == 0) {
+                        throw new IOException("line longer than " + WINDOW_SIZE + " bytes at offset " + position);
+                    }
+                }
+                int lineStart = 0;
+                while (lineStart < limit) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < limit && buffer.get(lineEnd) != NEWLINE) {
+                        lineEnd++;
+                    }
+                    if (header) {
+                        header = false;
+                    } else {
+                        parseLine(buffer, lineStart, lineEnd, scratch, handler);
+                    }
+                    bytes.add(Math.min(lineEnd + 1, limit) - lineStart);
+                    lineStart = lineEnd + 1;
+                }
+                position += limit;
+            }
+        }
+    }
+
+    /**
+     * parses a file by reading decoded lines and splitting them with a regular expression.
+     *
+     * @param path the file to parse
+     * @param handler called for each valid record
+     * @throws IOException if the file cannot be read
+     */
+    public void parseLines(Path path, RecordHandler handler) throws IOException {
+        try (Stream<String> stream = Files.lines(path)) {
+            Iterator<String> iterator = stream.iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+            }
+            while (iterator.hasNext()) {
+                String line = iterator.next();
+                bytes.add(line.length() + 1);
+                if (!StringUtils.hasLength(line)) {
+                    continue;
+                }
+                lines.increment();
+                final String[] fields = line.split("\\|");
+                try {
+                    if (fields.length != 5 || fields[1].isEmpty()) {
+                        throw new IllegalArgumentException("no 5 fields in line");
+                    }
+                    int category = Integer.parseInt(fields[0]);
+                    double lat = Double.parseDouble(fields[2]);
+                    double lon = Double.parseDouble(fields[3]);
+                    handler.accept(category, fields[1], lat, lon, fields[4]);
+                } catch (IllegalArgumentException e) {
+                    malformedLines.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes that were processed; for {@link #parseLines(Path, RecordHandler)} this is the number
+     * of characters.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return the number of non empty lines that were processed, excluding the header.
+     */
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return the number of lines that could not be parsed.
+     */
+    public long getMalformedLines() {
+        return malformedLines.sum();
+    }
+
+    private void parseLine(MappedByteBuffer buffer, int start, int end, byte[] scratch, RecordHandler handler) {
+        if (end > start && buffer.get(end - 1) == CARRIAGE_RETURN) {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        lines.increment();
+
+        // positions of the four delimiters, there must be no fifth one
+        int d0 = indexOf(buffer, start, end);
+        int d1 = d0 < 0 ? -1 : indexOf(buffer, d0 + 1, end);
+        int d2 = d1 < 0 ? -1 : indexOf(buffer, d1 + 1, end);
+        int d3 = d2 < 0 ? -1 : indexOf(buffer, d2 + 1, end);
+        if (d3 < 0 || d3 + 1 == end || d1 == d0 + 1 || indexOf(buffer, d3 + 1, end) >= 0
+            || end - start > scratch.length) {
+            malformedLines.increment();
+            return;
+        }
+
+        long category = parseLong(buffer, start, d0);
+        double lat = parseDouble(buffer, d1 + 1, d2, scratch);
+        double lon = parseDouble(buffer, d2 + 1, d3, scratch);
+        if (category < Integer.MIN_VALUE || category > Integer.MAX_VALUE || Double.isNaN(lat) || Double.isNaN(lon)) {
+            malformedLines.increment();
+            return;
+        }
+
+        String id = decode(buffer, d0 + 1, d1, scratch);
+        String name = decode(buffer, d3 + 1, end, scratch);
+        handler.accept((int) category, id, lat, lon, name);
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == DELIMITER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the parsed value or {@link Long#MIN_VALUE} if the bytes are no valid int.
+     */
+    private static long parseLong(MappedByteBuffer buffer, int start, int end) {
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * parses a decimal number in the form [-]digits[.digits]. The result is exact because both the mantissa and the
+     * power of ten are exactly representable and IEEE division is correctly rounded. Other number formats are passed to
+     * {@link Double#parseDouble(String)}.
+     *
+     * @return the parsed value or {@link Double#NaN} if the bytes are no valid number.
+     */
+    private static double parseDouble(MappedByteBuffer buffer, int start, int end, byte[] scratch) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return parseDoubleSlow(buffer, start, end, scratch);
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(MappedByteBuffer buffer, int start, int end, byte[] scratch) {
+        try {
+            return Double.parseDouble(decode(buffer, start, end, scratch));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String decode(MappedByteBuffer buffer, int start, int end, byte[] scratch) {
+        int length = end - start;
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * a part of a file that starts at the beginning of a line and ends after a line break.
+     */
+    public static class Range {
+        private final Path file;
+        private final long start;
+        private final long end;
+
+        public Range(Path file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /** @return the offset of the first byte in the range */
+        public long getStart() {
+            return start;
+        }
+
+        /** @return the offset after the last byte in the range */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start;
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" +
+                "file=" + file +
+                ", start=" + start +
+                ", end=" + end +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes all POIs of the index to a stream. The index is read with a scroll sorted by {@code _doc}, which is the
+ * cheapest order for Elasticsearch, and each batch is written before the next one is fetched, so the memory needed
+ * does not depend on the size of the index.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class FoodPOIExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FoodPOIExporter.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    public enum Format {
+        /**
+         * the format read by {@link FoodPOICsvParser}: a header line, then {@code category|id|lat|lon|name}. The
+         * format has no quoting and the parser rejects lines with an empty name, so POIs without a name are skipped.
+         */
+        CSV,
+        /** one JSON object per line */
+        NDJSON
+    }
+
+    private final ElasticsearchOperations operations;
+    private final ObjectMapper objectMapper;
+
+    public FoodPOIExporter(ElasticsearchOperations operations, ObjectMapper objectMapper) {
+        this.operations = operations;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * writes all POIs to the output stream. The stream is flushed, but not closed.
+     *
+     * @return the number of exported POIs, not counting the POIs skipped in the CSV format
+     */
+    public long export(Format format, OutputStream outputStream) throws IOException {
+        long start = System.currentTimeMillis();
+        NativeSearchQuery query = new NativeSearchQueryBuilder()
+            .withQuery(QueryBuilders.matchAllQuery())
+            .withSort(SortBuilders.fieldSort("_doc"))
+            .withPageable(PageRequest.of(0, BATCH_SIZE))
+            .build();
+
+        long count = 0;
+        long skipped = 0;
+        try (SearchHitsIterator<FoodPOI> searchHits = operations.searchForStream(query, FoodPOI.class)) {
+            if (format == Format.CSV) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                writer.write("category|id|lat|lon|name\n");
+                while (searchHits.hasNext()) {
+                    if (writeCsv(writer, searchHits.next().getContent())) {
+                        count++;
+                    } else {
+                        skipped++;
+                    }
+                }
+                writer.flush();
+            } else {
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                while (searchHits.hasNext()) {
+                    generator.writeObject(searchHits.next().getContent());
+                    count++;
+                }
+                generator.writeRaw('\n');
+                generator.flush();
+            }
+        }
+        if (skipped > 0) {
+            LOG.warn("skipped {} POIs without a name, they cannot be written as {}", skipped, format);
+        }
+        LOG.info("exported {} POIs as {} in {} ms", count, format, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * writes a POI as a CSV line.
+     *
+     * @return {@literal false} if the POI was not written because it has no name
+     */
+    static boolean writeCsv(Writer writer, FoodPOI foodPOI) throws IOException {
+        String name = foodPOI.getName();
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        writer.write(String.valueOf(foodPOI.getCategory()));
+        writer.write('|');
+        writer.write(foodPOI.getId());
+        writer.write('|');
+        writer.write(Double.toString(foodPOI.getLocation().getLat()));
+        writer.write('|');
+        writer.write(Double.toString(foodPOI.getLocation().getLon()));
+        writer.write('|');
+        // the delimiters cannot be escaped in this format
+        writer.write(name.replace('|', ' ').replace('\n', ' ').replace('\r', ' '));
+        writer.write('\n');
+        return true;
+    }
+}
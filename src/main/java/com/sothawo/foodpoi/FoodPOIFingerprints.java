@@ -0,0 +1,381 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stores a content fingerprint for each POI id, used to find the POIs that were added, changed or removed between two
+ * extracts. Numeric ids, which is what OSM ids are, are kept in primitive open addressing hash tables with 8 bytes for
+ * the id and 4 bytes for the fingerprint per slot; other ids go into a small overflow map. The tables are split into
+ * stripes that are locked independently, so the store can be updated from several threads.
+ * <p>
+ * Every id that is {@link #update(String, int) updated} is marked as seen, the ids that were not seen during a load are
+ * the removed POIs, see {@link #forEachUnseen(Consumer)}. The seen marks are not persisted.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOIFingerprints {
+
+    private static final int FILE_MAGIC = 0x46504f49; // FPOI
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<String, Overflow> overflow = new HashMap<>();
+
+    public FoodPOIFingerprints() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * computes the fingerprint of the content of a POI.
+     */
+    public static int fingerprint(int category, double lat, double lon, String name) {
+        long hash = mix(0x9e3779b97f4a7c15L ^ category);
+        hash = mix(hash ^ Double.doubleToLongBits(lat));
+        hash = mix(hash ^ Double.doubleToLongBits(lon));
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * stores the fingerprint for a POI and marks the POI as seen.
+     *
+     * @return {@literal true} if the POI is new or its fingerprint has changed
+     */
+    public boolean update(String id, int fingerprint) {
+        long key = key(id);
+        if (key == EMPTY) {
+            synchronized (overflow) {
+                Overflow entry = overflow.get(id);
+                if (entry == null) {
+                    overflow.put(id, new Overflow(fingerprint));
+                    return true;
+                }
+                entry.seen = true;
+                boolean changed = entry.fingerprint != fingerprint;
+                entry.fingerprint = fingerprint;
+                return changed;
+            }
+        }
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            return stripe.put(key, hash, fingerprint);
+        }
+    }
+
+    /**
+     * removes the fingerprint of a POI, so it is considered new by the next {@link #update(String, int)}.
+     */
+    public void remove(String id) {
+        long key = key(id);
+        if (key == EMPTY) {
+            synchronized (overflow) {
+                overflow.remove(id);
+            }
+            return;
+        }
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            stripe.remove(key, hash);
+        }
+    }
+
+    /**
+     * calls the consumer with all POIs that were not seen since this store was created or loaded. The POIs are not
+     * removed, the caller {@link #remove(String) removes} them when they are deleted from the index, so a POI whose
+     * deletion failed is still reported by the next load.
+     *
+     * @param consumer called with the id of each unseen POI, not while a lock of the store is held
+     * @return the number of unseen POIs
+     */
+    public long forEachUnseen(Consumer<String> consumer) {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            long[] unseen;
+            synchronized (stripe) {
+                unseen = stripe.unseen();
+            }
+            for (long key : unseen) {
+                consumer.accept(Long.toString(key));
+            }
+            count += unseen.length;
+        }
+        List<String> unseen = new ArrayList<>();
+        synchronized (overflow) {
+            for (Map.Entry<String, Overflow> entry : overflow.entrySet()) {
+                if (!entry.getValue().seen) {
+                    unseen.add(entry.getKey());
+                }
+            }
+        }
+        unseen.forEach(consumer);
+        return count + unseen.size();
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        synchronized (overflow) {
+            return size + overflow.size();
+        }
+    }
+
+    /**
+     * writes the fingerprints to a file. The file is first written under a temporary name and then moved, so an
+     * existing file is only replaced by a complete one.
+     */
+    public void save(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(FILE_MAGIC);
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    out.writeInt(stripe.size);
+                    for (int i = 0; i < stripe.keys.length; i++) {
+                        if (stripe.keys[i] != EMPTY) {
+                            out.writeLong(stripe.keys[i]);
+                            out.writeInt(stripe.fingerprints[i]);
+                        }
+                    }
+                }
+            }
+            synchronized (overflow) {
+                out.writeInt(overflow.size());
+                for (Map.Entry<String, Overflow> entry : overflow.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().fingerprint);
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * loads the fingerprints from a file written by {@link #save(Path)}.
+     *
+     * @return the loaded fingerprints or an empty store if the file does not exist
+     */
+    public static FoodPOIFingerprints load(Path file) throws IOException {
+        FoodPOIFingerprints fingerprints = new FoodPOIFingerprints();
+        if (!Files.exists(file)) {
+            return fingerprints;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException(file + " is no fingerprint file");
+            }
+            for (Stripe stripe : fingerprints.stripes) {
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    long key = in.readLong();
+                    stripe.put(key, mix(key), in.readInt());
+                }
+                Arrays.fill(stripe.seen, 0L);
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String id = in.readUTF();
+                Overflow entry = new Overflow(in.readInt());
+                entry.seen = false;
+                fingerprints.overflow.put(id, entry);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * @return the numeric value of the id or {@link #EMPTY} if the id is not a number in canonical form.
+     */
+    private static long key(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18 || (id.charAt(0) == '0' && length > 1)) {
+            return EMPTY;
+        }
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return EMPTY;
+            }
+            key = key * 10 + digit;
+        }
+        return key;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static class Overflow {
+        private int fingerprint;
+        private boolean seen = true;
+
+        Overflow(int fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * open addressing hash table with linear probing. Removal shifts the following entries back, so no tombstones are
+     * needed.
+     */
+    private static class Stripe {
+        private long[] keys;
+        private int[] fingerprints;
+        private long[] seen;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_STRIPE_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            fingerprints = new int[capacity];
+            seen = new long[(capacity + 63) >>> 6];
+        }
+
+        boolean put(long key, long hash, int fingerprint) {
+            if (size >= keys.length - (keys.length >>> 2)) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    seen[slot >>> 6] |= 1L << slot;
+                    boolean changed = fingerprints[slot] != fingerprint;
+                    fingerprints[slot] = fingerprint;
+                    return changed;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            fingerprints[slot] = fingerprint;
+            seen[slot >>> 6] |= 1L << slot;
+            size++;
+            return true;
+        }
+
+        void remove(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    removeSlot(slot);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void removeSlot(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            int next = (gap + 1) & mask;
+            while (keys[next] != EMPTY) {
+                int home = (int) mix(keys[next]) & mask;
+                // move the entry into the gap if its home slot is not between the gap and its position
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    fingerprints[gap] = fingerprints[next];
+                    setSeen(gap, isSeen(next));
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[gap] = EMPTY;
+            setSeen(gap, false);
+            size--;
+        }
+
+        long[] unseen() {
+            long[] unseen = new long[16];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY && !isSeen(i)) {
+                    if (count == unseen.length) {
+                        unseen = Arrays.copyOf(unseen, count * 2);
+                    }
+                    unseen[count++] = keys[i];
+                }
+            }
+            return Arrays.copyOf(unseen, count);
+        }
+
+        private boolean isSeen(int slot) {
+            return (seen[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void setSeen(int slot, boolean value) {
+            if (value) {
+                seen[slot >>> 6] |= 1L << slot;
+            } else {
+                seen[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldFingerprints = fingerprints;
+            long[] oldSeen = seen;
+            allocate(oldKeys.length * 2);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    fingerprints[slot] = oldFingerprints[i];
+                    setSeen(slot, (oldSeen[i >>> 6] & (1L << i)) != 0);
+                }
+            }
+        }
+    }
+}
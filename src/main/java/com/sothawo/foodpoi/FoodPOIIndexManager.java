@@ -0,0 +1,239 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.action.admin.cluster.node.tasks.list.ListTasksRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.tasks.TaskInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.ResourceUtil;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Manages the indices of the {@link FoodPOI} entity. The index name of the entity is used as an alias that points to a
+ * versioned index named {@code <alias>-<timestamp>}. A reindex writes into a new versioned index that is created
+ * without replicas and with refresh disabled. When the load is finished, the index is force merged, then it gets the
+ * replicas and refresh interval from the index settings of the entity, so the replicas copy the merged segments, and
+ * the alias is switched to it in one atomic request, so queries always see a complete and merged index.
+ * <p>
+ * The settings and the mapping come from the files referenced by the {@link FoodPOI} entity. Index sorting can only be
+ * set when an index is created, so both are sent in the create index request.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class FoodPOIIndexManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FoodPOIIndexManager.class);
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    /** the actions of the force merge task and its tasks on the nodes */
+    private static final String FORCE_MERGE_ACTIONS = "indices:admin/forcemerge*";
+    private static final Duration FORCE_MERGE_POLL_INTERVAL = Duration.ofSeconds(10);
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchOperations operations;
+    private final FoodPOIConfiguration.Ingest settings;
+    private final ElasticsearchPersistentEntity<?> entity;
+    private final Settings indexSettings;
+    /** set when the alias is known to exist */
+    private volatile boolean indexChecked;
+
+    public FoodPOIIndexManager(RestHighLevelClient client, ElasticsearchOperations operations,
+                               FoodPOIConfiguration configuration) {
+        this.client = client;
+        this.operations = operations;
+        this.settings = configuration.getIngest();
+        this.entity = operations.getElasticsearchConverter().getMappingContext()
+            .getRequiredPersistentEntity(FoodPOI.class);
+        try {
+            this.indexSettings = Settings.builder()
+                .loadFromSource(ResourceUtil.readFileFromClasspath(entity.settingPath()), XContentType.JSON)
+                .build();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("invalid index settings in " + entity.settingPath(), e);
+        }
+    }
+
+    /**
+     * @return the name of the alias used to access the POIs
+     */
+    public String getAlias() {
+        return entity.getIndexCoordinates().getIndexName();
+    }
+
+    /**
+     * creates a versioned index with the alias if neither an index nor an alias with the alias name exists. The check
+     * is done on the first use of the index and not on startup, so the client is not created before it is needed. It
+     * is repeated until it succeeds, errors are only logged and the following request reports them.
+     */
+    public void ensureIndex() {
+        if (indexChecked) {
+            return;
+        }
+        synchronized (this) {
+            if (indexChecked) {
+                return;
+            }
+            try {
+                if (!client.indices().exists(new GetIndexRequest(getAlias()), RequestOptions.DEFAULT)) {
+                    String indexName = createIndex(Settings.EMPTY);
+                    client.indices().updateAliases(new IndicesAliasesRequest()
+                        .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(indexName).alias(getAlias())),
+                        RequestOptions.DEFAULT);
+                }
+                indexChecked = true;
+            } catch (IOException e) {
+                LOG.error("could not check or create the index {}", getAlias(), e);
+            }
+        }
+    }
+
+    /**
+     * @return true if {@link #ensureIndex()} does not need to send a request
+     */
+    public boolean isIndexChecked() {
+        return indexChecked;
+    }
+
+    /**
+     * creates a new versioned index for a bulk load: no replicas and no refresh.
+     *
+     * @return the name of the created index
+     */
+    public String createBulkLoadIndex() throws IOException {
+        return createIndex(Settings.builder()
+            .put("index.number_of_replicas", 0)
+            .put("index.refresh_interval", "-1")
+            .build());
+    }
+
+    private String createIndex(Settings overrides) throws IOException {
+        String indexName = getAlias() + '-' + LocalDateTime.now().format(VERSION_FORMAT);
+        CreateIndexRequest request = new CreateIndexRequest(indexName)
+            .settings(Settings.builder()
+                .put(indexSettings)
+                .put(overrides))
+            .mapping(operations.indexOps(FoodPOI.class).createMapping());
+        client.indices().create(request, RequestOptions.DEFAULT);
+        LOG.info("created index {}", indexName);
+        return indexName;
+    }
+
+    /**
+     * makes a bulk loaded index the current one: force merges the index, restores replicas and refresh interval and
+     * atomically moves the alias from the previous indices to it.
+     *
+     * @param indexName the name of the index to activate
+     */
+    public void activate(String indexName) throws IOException {
+
+        client.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        if (settings.getForceMergeSegments() > 0) {
+            forceMerge(indexName);
+        }
+        client.indices().putSettings(new UpdateSettingsRequest(indexName).settings(Settings.builder()
+            .put("index.number_of_replicas", indexSettings.get("index.number_of_replicas"))
+            .put("index.refresh_interval", indexSettings.get("index.refresh_interval"))), RequestOptions.DEFAULT);
+
+        Set<String> previousIndices = new HashSet<>();
+        boolean aliasIsIndex = false;
+        GetAliasesRequest getAliasesRequest = new GetAliasesRequest(getAlias());
+        if (client.indices().existsAlias(getAliasesRequest, RequestOptions.DEFAULT)) {
+            previousIndices.addAll(client.indices().getAlias(getAliasesRequest, RequestOptions.DEFAULT)
+                .getAliases().keySet());
+        } else {
+            aliasIsIndex = client.indices().exists(new GetIndexRequest(getAlias()), RequestOptions.DEFAULT);
+        }
+
+        IndicesAliasesRequest aliasesRequest = new IndicesAliasesRequest()
+            .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(indexName).alias(getAlias()));
+        if (aliasIsIndex) {
+            // an index created before the alias was introduced, it must be removed in the same request
+            aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(getAlias()));
+        }
+        for (String previousIndex : previousIndices) {
+            aliasesRequest.addAliasAction(
+                IndicesAliasesRequest.AliasActions.remove().index(previousIndex).alias(getAlias()));
+        }
+        client.indices().updateAliases(aliasesRequest, RequestOptions.DEFAULT);
+        LOG.info("alias {} now points to {}", getAlias(), indexName);
+
+        previousIndices.remove(indexName);
+        if (settings.isDeleteOldIndices() && !previousIndices.isEmpty()) {
+            client.indices().delete(new DeleteIndexRequest(previousIndices.toArray(new String[0])),
+                RequestOptions.DEFAULT);
+            LOG.info("deleted previous indices {}", previousIndices);
+        }
+    }
+
+    /**
+     * force merges the index. When the request times out, the merge goes on in the cluster, then the tasks of the
+     * cluster are polled until it is finished.
+     */
+    private void forceMerge(String indexName) throws IOException {
+        LOG.info("force merging {} to {} segments", indexName, settings.getForceMergeSegments());
+        try {
+            client.indices().forcemerge(new ForceMergeRequest(indexName)
+                .maxNumSegments(settings.getForceMergeSegments()), RequestOptions.DEFAULT);
+        } catch (SocketTimeoutException e) {
+            LOG.info("force merge of {} continues in the background, waiting for it to finish", indexName);
+            ListTasksRequest request = new ListTasksRequest().setActions(FORCE_MERGE_ACTIONS).setDetailed(true);
+            while (client.tasks().list(request, RequestOptions.DEFAULT).getTasks().stream()
+                .anyMatch(task -> isForceMergeOf(task, indexName))) {
+                try {
+                    Thread.sleep(FORCE_MERGE_POLL_INTERVAL.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the force merge of " + indexName);
+                }
+            }
+        }
+        LOG.info("force merged {}", indexName);
+    }
+
+    /**
+     * @return true if the task may be merging the index; tasks without a description cannot be told apart and are
+     * considered to merge it
+     */
+    static boolean isForceMergeOf(TaskInfo task, String indexName) {
+        String description = task.getDescription();
+        return description == null || description.isEmpty() || description.contains(indexName);
+    }
+}
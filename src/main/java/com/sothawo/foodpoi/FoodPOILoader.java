@@ -0,0 +1,539 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads the POI files into Elasticsearch. The input files are split into ranges of complete lines which are parsed in
+ * parallel on a {@link ForkJoinPool}; all ranges feed the same {@link FoodPOIBulkIndexer.Session}.
+ * <p>
+ * A load runs as an {@link IngestJob} in the background. When all the documents of a range are indexed successfully,
+ * the range is recorded in the job's {@link IngestCheckpoint} which is written to the checkpoint directory. A range
+ * with failed documents is not recorded, and a job with such ranges fails when it has read all its input. A job that
+ * failed or was interrupted by a crash can be resumed from its checkpoint and then only loads the remaining ranges; a
+ * completed job cannot be resumed.
+ * <p>
+ * Every load records the content fingerprints of the POIs in {@link FoodPOIFingerprints}. A {@link IngestJob.Mode#DELTA
+ * delta} load compares the POIs with the stored fingerprints, only sends the new and changed ones and deletes the POIs
+ * that are no longer contained in the input, so it expects the complete extract as input. A POI keeps its fingerprint
+ * until its deletion is acknowledged; when a deletion fails, the job fails and a resume sends the deletion again. The
+ * ranges that are skipped when resuming a job are still scanned to update the fingerprints.
+ * <p>
+ * A {@link IngestJob.Mode#REINDEX reindex} loads all POIs into a new index created by the {@link FoodPOIIndexManager}
+ * with settings for bulk loading. The alias is only switched to the new index when the job completes, until then the
+ * queries use the previous index.
+ * <p>
+ * The lines read by all jobs are published as the counter {@code foodpoi.ingest.lines} and the lines that could not be
+ * parsed as {@code foodpoi.ingest.lines.malformed}, their ratio is the parse error rate.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class FoodPOILoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FoodPOILoader.class);
+
+    private final FoodPOIBulkIndexer indexer;
+    private final FoodPOIIndexManager indexManager;
+    private final FoodPOIConfiguration.Ingest settings;
+    private final ObjectMapper objectMapper;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /** writes the checkpoints, so the acknowledgement callbacks of the bulk requests do not wait for the file system */
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, IngestJob> jobs = new ConcurrentHashMap<>();
+    @Nullable private IngestJob runningJob;
+
+    public FoodPOILoader(FoodPOIBulkIndexer indexer, FoodPOIIndexManager indexManager,
+                         FoodPOIConfiguration configuration, ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry) {
+        this.indexer = indexer;
+        this.indexManager = indexManager;
+        this.settings = configuration.getIngest();
+        this.objectMapper = objectMapper;
+
+        // jobs are never removed, so the sums only increase
+        FunctionCounter.builder("foodpoi.ingest.lines", jobs,
+            jobs -> jobs.values().stream().mapToLong(IngestJob::getLines).sum())
+            .description("lines read by the ingest jobs")
+            .register(meterRegistry);
+        FunctionCounter.builder("foodpoi.ingest.lines.malformed", jobs,
+            jobs -> jobs.values().stream().mapToLong(IngestJob::getMalformedLines).sum())
+            .description("lines that could not be parsed by the ingest jobs")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        checkpointExecutor.shutdown();
+    }
+
+    /**
+     * starts a new job loading all the configured input files or resumes a job from its checkpoint.
+     *
+     * @param resumeJobId the id of the job to resume, {@literal null} to start a new job
+     * @param mode the mode of a new job, a resumed job keeps its mode
+     * @return the started job
+     * @throws IOException if an input file or the checkpoint cannot be read
+     * @throws IllegalStateException if a job is already running, the resumed job is completed or its input files have
+     * changed
+     * @throws NoSuchFileException if there is no checkpoint for the job to resume
+     */
+    public synchronized IngestJob start(@Nullable String resumeJobId, IngestJob.Mode mode) throws IOException {
+
+        if (runningJob != null && runningJob.getState() == IngestJob.State.RUNNING) {
+            throw new IllegalStateException("job " + runningJob.getId() + " is still running");
+        }
+
+        IngestCheckpoint checkpoint;
+        if (resumeJobId != null) {
+            checkpoint = readCheckpoint(resumeJobId);
+            if (checkpoint.isCompleted()) {
+                throw new IllegalStateException("job " + resumeJobId + " is already completed");
+            }
+        } else {
+            checkpoint = newCheckpoint(mode);
+            checkpoint.setIndex(mode == IngestJob.Mode.REINDEX
+                ? indexManager.createBulkLoadIndex()
+                : indexManager.getAlias());
+            writeCheckpoint(checkpoint);
+        }
+        if (checkpoint.getMode() != IngestJob.Mode.REINDEX) {
+            // the other modes load into the alias
+            indexManager.ensureIndex();
+        }
+
+        Map<FoodPOICsvParser.Range, IngestCheckpoint.InputFile> pending = new LinkedHashMap<>();
+        List<FoodPOICsvParser.Range> skipped = new ArrayList<>();
+        long totalBytes = 0;
+        long skippedBytes = 0;
+        int ranges = 0;
+        for (IngestCheckpoint.InputFile inputFile : checkpoint.getInputs()) {
+            Path file = Paths.get(inputFile.getPath());
+            List<FoodPOICsvParser.Range> fileRanges = checkpoint.getParser() == FoodPOIConfiguration.Ingest.Parser.LINES
+                ? List.of(new FoodPOICsvParser.Range(file, 0, inputFile.getSize()))
+                : FoodPOICsvParser.split(file, checkpoint.getRangeSize());
+            for (FoodPOICsvParser.Range range : fileRanges) {
+                ranges++;
+                totalBytes += range.getLength();
+                if (inputFile.isAcknowledged(range)) {
+                    skipped.add(range);
+                    skippedBytes += range.getLength();
+                } else {
+                    pending.put(range, inputFile);
+                }
+            }
+        }
+
+        IngestJob job = new IngestJob(checkpoint.getJobId(), checkpoint.getMode(), totalBytes, skippedBytes, ranges, ranges - pending.size());
+        jobs.put(job.getId(), job);
+        runningJob = job;
+        LOG.info("{} {} job {} with {} of {} parts", resumeJobId != null ? "resuming" : "starting", job.getMode(),
+            job.getId(), pending.size(), ranges);
+        executor.submit(() -> run(job, checkpoint, pending, skipped));
+        return job;
+    }
+
+    public Optional<IngestJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public Collection<IngestJob> getJobs() {
+        return jobs.values();
+    }
+
+    private void run(IngestJob job, IngestCheckpoint checkpoint,
+                     Map<FoodPOICsvParser.Range, IngestCheckpoint.InputFile> pending,
+                     List<FoodPOICsvParser.Range> skipped) {
+
+        long start = System.currentTimeMillis();
+        FoodPOICsvParser parser = new FoodPOICsvParser();
+        FoodPOIBulkIndexer.Session session = indexer.open(checkpoint.getIndex());
+        job.running(parser, session);
+        ForkJoinPool pool = new ForkJoinPool(settings.getParallelism());
+        // the parsers do not check for interruption, the handlers stop them when a task has failed
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicLong failedDeletes = new AtomicLong();
+        FoodPOIFingerprints fingerprints = null;
+        try {
+            if (checkpoint.getMode() == IngestJob.Mode.REINDEX) {
+                // the new index starts empty, so the fingerprints of the previous one do not apply
+                fingerprints = new FoodPOIFingerprints();
+            } else {
+                fingerprints = FoodPOIFingerprints.load(settings.getFingerprintFile());
+                LOG.info("loaded {} fingerprints", fingerprints.size());
+            }
+            FoodPOIFingerprints jobFingerprints = fingerprints;
+            boolean delta = checkpoint.getMode() == IngestJob.Mode.DELTA;
+
+            List<Future<?>> tasks = new ArrayList<>();
+            FoodPOICsvParser scanner = new FoodPOICsvParser();
+            FoodPOICsvParser.RecordHandler scanHandler = (category, id, lat, lon, name) -> {
+                checkAborted(aborted);
+                jobFingerprints.update(id, FoodPOIFingerprints.fingerprint(category, lat, lon, name));
+            };
+            for (FoodPOICsvParser.Range range : skipped) {
+                tasks.add(pool.submit(() -> {
+                    parse(scanner, checkpoint, range, scanHandler);
+                    return null;
+                }));
+            }
+
+            CheckpointWriter checkpointWriter = new CheckpointWriter(checkpoint);
+            pending.forEach((range, inputFile) -> tasks.add(pool.submit(() -> {
+                // called from the acknowledgement of a bulk request, the file is written later
+                RangeTracker tracker = new RangeTracker(range, () -> {
+                    synchronized (checkpoint) {
+                        inputFile.acknowledge(range);
+                        checkpoint.setAcknowledgedBatches(session.getBulks());
+                    }
+                    checkpointWriter.request();
+                    job.rangeAcknowledged();
+                });
+                FoodPOICsvParser.RecordHandler handler = (category, id, lat, lon, name) -> {
+                    checkAborted(aborted);
+                    boolean changed = jobFingerprints.update(id,
+                        FoodPOIFingerprints.fingerprint(category, lat, lon, name));
+                    if (delta && !changed) {
+                        job.unchanged();
+                        return;
+                    }
+                    tracker.acquire();
+                    session.index(FoodPOI.forIndex(id, category, name, new GeoPoint(lat, lon)),
+                        (documentId, success) -> {
+                            if (!success) {
+                                // considered new on the next load, so it is sent again
+                                jobFingerprints.remove(documentId);
+                                tracker.failed();
+                            }
+                            tracker.release();
+                        });
+                };
+                parse(parser, checkpoint, range, handler);
+                tracker.release();
+                return null;
+            })));
+            try {
+                await(tasks);
+            } catch (IOException e) {
+                aborted.set(true);
+                tasks.forEach(task -> task.cancel(true));
+                throw e;
+            }
+
+            long parsed = System.currentTimeMillis() - start;
+            LOG.info("read {} lines with {} parser in {} ms ({} lines/s), {} malformed", parser.getLines(),
+                checkpoint.getParser(), parsed, parser.getLines() * 1000 / Math.max(1, parsed),
+                parser.getMalformedLines());
+
+            if (delta) {
+                // a POI keeps its fingerprint until the deletion is acknowledged, so a failed one is sent again
+                long unseen = jobFingerprints.forEachUnseen(id -> session.delete(id, (documentId, success) -> {
+                    if (success) {
+                        jobFingerprints.remove(documentId);
+                        job.deleted(1);
+                    } else {
+                        failedDeletes.incrementAndGet();
+                    }
+                }));
+                LOG.info("deleting {} POIs that are no longer in the input", unseen);
+            }
+        } catch (Exception e) {
+            LOG.error("job {} failed", job.getId(), e);
+            job.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+        } finally {
+            // no task may add documents after the session is closed
+            awaitTermination(pool);
+            session.close();
+        }
+
+        if (job.getState() == IngestJob.State.RUNNING && failedDeletes.get() > 0) {
+            job.failed(String.format("%d POIs that are no longer in the input could not be deleted, resume the job to "
+                + "delete them", failedDeletes.get()));
+        }
+
+        if (job.getState() != IngestJob.State.RUNNING || job.getAcknowledgedRanges() < job.getRanges()) {
+            // the acknowledged ranges are persisted for a resume of the job
+            try {
+                awaitCheckpoint(checkpoint);
+            } catch (IOException e) {
+                LOG.error("job {}: could not write the checkpoint", job.getId(), e);
+            }
+        }
+        if (job.getState() == IngestJob.State.RUNNING && job.getAcknowledgedRanges() < job.getRanges()) {
+            job.failed(String.format("%d of %d parts have documents that could not be indexed, resume the job to load "
+                + "them again", job.getRanges() - job.getAcknowledgedRanges(), job.getRanges()));
+        }
+        if (job.getState() == IngestJob.State.RUNNING && fingerprints != null) {
+            try {
+                if (checkpoint.getMode() == IngestJob.Mode.REINDEX) {
+                    indexManager.activate(checkpoint.getIndex());
+                }
+                fingerprints.save(settings.getFingerprintFile());
+                synchronized (checkpoint) {
+                    checkpoint.setCompleted(true);
+                    checkpoint.setAcknowledgedBatches(session.getBulks());
+                }
+                awaitCheckpoint(checkpoint);
+                job.completed();
+            } catch (IOException e) {
+                LOG.error("job {}: could not complete", job.getId(), e);
+                job.failed("could not complete: " + e.getMessage());
+            }
+        }
+        LOG.info("job {}: loaded {} POIs in {} ms, {} indexed, {} unchanged, {} deleted, {} failed", job.getId(),
+            session.getAdded(), System.currentTimeMillis() - start, session.getIndexed(), job.getUnchanged(),
+            job.getDeleted(), session.getFailed());
+    }
+
+    private static void parse(FoodPOICsvParser parser, IngestCheckpoint checkpoint, FoodPOICsvParser.Range range,
+                              FoodPOICsvParser.RecordHandler handler) throws IOException {
+        if (checkpoint.getParser() == FoodPOIConfiguration.Ingest.Parser.LINES) {
+            parser.parseLines(range.getFile(), handler);
+        } else {
+            parser.parse(range, handler);
+        }
+    }
+
+    private IngestCheckpoint newCheckpoint(IngestJob.Mode mode) throws IOException {
+        IngestCheckpoint checkpoint = new IngestCheckpoint();
+        checkpoint.setJobId(UUID.randomUUID().toString());
+        checkpoint.setMode(mode);
+        checkpoint.setParser(settings.getParser());
+        checkpoint.setRangeSize(settings.getRangeSize().toBytes());
+        for (Path file : inputFiles(settings.getInputs())) {
+            checkpoint.getInputs().add(new IngestCheckpoint.InputFile(file));
+        }
+        return checkpoint;
+    }
+
+    private IngestCheckpoint readCheckpoint(String jobId) throws IOException {
+        IngestCheckpoint checkpoint = objectMapper.readValue(checkpointFile(jobId).toFile(), IngestCheckpoint.class);
+        for (IngestCheckpoint.InputFile inputFile : checkpoint.getInputs()) {
+            if (inputFile.hasChanged()) {
+                throw new IllegalStateException("input file " + inputFile.getPath() + " has changed since job "
+                    + jobId + " was started");
+            }
+        }
+        if (checkpoint.getIndex() == null) {
+            checkpoint.setIndex(indexManager.getAlias());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * writes the checkpoint to a temporary file which then replaces the previous checkpoint. Errors are only logged, a
+     * missing checkpoint means that more data has to be loaded again on resume. While a job is running, the checkpoint
+     * is only written on the {@link #checkpointExecutor}.
+     */
+    private void writeCheckpoint(IngestCheckpoint checkpoint) {
+        try {
+            byte[] json;
+            synchronized (checkpoint) {
+                json = objectMapper.writeValueAsBytes(checkpoint);
+            }
+            Files.createDirectories(settings.getCheckpointDirectory());
+            Path file = checkpointFile(checkpoint.getJobId());
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tempFile, json);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("could not write checkpoint for job {}", checkpoint.getJobId(), e);
+        }
+    }
+
+    /**
+     * writes the checkpoint on the {@link #checkpointExecutor} after the writes that are already pending and waits for
+     * it.
+     */
+    private void awaitCheckpoint(IngestCheckpoint checkpoint) throws IOException {
+        await(List.of(checkpointExecutor.submit(() -> writeCheckpoint(checkpoint))));
+    }
+
+    private Path checkpointFile(String jobId) throws NoSuchFileException {
+        Path file = settings.getCheckpointDirectory().resolve(jobId + ".json");
+        if (!file.getParent().equals(settings.getCheckpointDirectory())) {
+            throw new NoSuchFileException(jobId);
+        }
+        return file;
+    }
+
+    /**
+     * @return the input files with directories replaced by the csv files they contain
+     */
+    static List<Path> inputFiles(List<Path> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> children = Files.list(input)) {
+                    files.addAll(children
+                        .filter(Files::isRegularFile)
+                        .filter(path -> path.getFileName().toString().endsWith(".csv"))
+                        .sorted()
+                        .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(input);
+            }
+        }
+        return files;
+    }
+
+    private static void checkAborted(AtomicBoolean aborted) {
+        if (aborted.get()) {
+            throw new CancellationException("loading was aborted");
+        }
+    }
+
+    /**
+     * waits until the tasks of the pool have finished, also when the thread is interrupted. A cancelled task of a
+     * {@link ForkJoinPool} keeps running until it returns.
+     */
+    private static void awaitTermination(ForkJoinPool pool) {
+        pool.shutdown();
+        boolean interrupted = Thread.interrupted();
+        while (!pool.isTerminated()) {
+            try {
+                if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOG.info("waiting for the parsing tasks to finish");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("loading was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("loading failed", e.getCause());
+        }
+    }
+
+    /**
+     * writes the checkpoint of a running job on the {@link #checkpointExecutor}. Requests that arrive while a write is
+     * pending are merged into that write, so the checkpoint is written at most once per write duration and not once
+     * per acknowledged range.
+     */
+    private class CheckpointWriter {
+        private final IngestCheckpoint checkpoint;
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        CheckpointWriter(IngestCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        void request() {
+            if (pending.compareAndSet(false, true)) {
+                try {
+                    checkpointExecutor.execute(() -> {
+                        pending.set(false);
+                        writeCheckpoint(checkpoint);
+                    });
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("checkpoint of job {} not written, the loader is shut down", checkpoint.getJobId());
+                }
+            }
+        }
+    }
+
+    /**
+     * counts the documents of a range that are not yet acknowledged. The count starts at one for the parsing of the
+     * range, so the range is complete when it is parsed and all its documents are acknowledged.
+     */
+    static class RangeTracker {
+        private final FoodPOICsvParser.Range range;
+        private final Runnable onComplete;
+        private final AtomicLong pending = new AtomicLong(1);
+        private volatile boolean failed;
+
+        RangeTracker(FoodPOICsvParser.Range range, Runnable onComplete) {
+            this.range = range;
+            this.onComplete = onComplete;
+        }
+
+        void acquire() {
+            pending.incrementAndGet();
+        }
+
+        /**
+         * marks the range as failed, it is not acknowledged and is loaded again when the job is resumed.
+         */
+        void failed() {
+            failed = true;
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                if (failed) {
+                    LOG.warn("{} has documents that could not be indexed", range);
+                } else {
+                    LOG.debug("acknowledged {}", range);
+                    onComplete.run();
+                }
+            }
+        }
+    }
+}
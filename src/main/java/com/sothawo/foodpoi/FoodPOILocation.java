@@ -0,0 +1,63 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+/**
+ * Read model of a POI for the viewport map, which only needs the position and the category of a POI. It is read from
+ * the filtered source of the search hits without the entity mapping of a {@link FoodPOI}.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOILocation {
+
+    private final String id;
+    private final int category;
+    private final double lat;
+    private final double lon;
+
+    public FoodPOILocation(String id, int category, double lat, double lon) {
+        this.id = id;
+        this.category = category;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getCategory() {
+        return category;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    @Override
+    public String toString() {
+        return "FoodPOILocation{" +
+            "id='" + id + '\'' +
+            ", category=" + category +
+            ", lat=" + lat +
+            ", lon=" + lon +
+            '}';
+    }
+}
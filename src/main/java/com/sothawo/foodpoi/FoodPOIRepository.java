@@ -15,14 +15,12 @@
 */
 package com.sothawo.foodpoi;
 
-import org.springframework.data.domain.Sort;
-import org.springframework.data.elasticsearch.core.SearchHits;
-import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 
-public interface FoodPOIRepository extends ElasticsearchRepository<FoodPOI, Integer> {
-
-    SearchHits<FoodPOI> searchTop5By(Sort sort);
-
-    SearchHits<FoodPOI> searchByLocationNear(GeoBox geoBox);
+/**
+ * Lazy, so the Elasticsearch client is not created on startup when no bean needs the repository right away.
+ */
+@Lazy
+public interface FoodPOIRepository extends ElasticsearchRepository<FoodPOI, Integer>, FoodPOIRepositoryCustom {
 }
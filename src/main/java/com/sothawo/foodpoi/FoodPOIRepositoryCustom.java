@@ -0,0 +1,87 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Queries of the {@link FoodPOIRepository} that cannot be derived from method names. The categories are filtered with
+ * a terms query in filter context, it does not score and Elasticsearch caches its result per segment, so repeated
+ * queries with the same categories are cheap.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public interface FoodPOIRepositoryCustom {
+
+    /**
+     * @param location the point to search from
+     * @param categories if not empty, only POIs of these categories are returned
+     * @param count the number of POIs to return
+     * @return the POIs nearest to the location, ordered by distance, the sort value is the distance in km
+     */
+    SearchHits<FoodPOI> searchNearest(GeoPoint location, Set<Integer> categories, int count);
+
+    /**
+     * searches the POIs within a box for the map. Only the category and location are fetched from the source and they
+     * are read into {@link FoodPOILocation} objects without the entity mapping.
+     *
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are returned
+     * @param maxResults the maximum number of POIs to return
+     * @return the locations of the POIs within the box and the number of POIs of all categories within the box
+     */
+    FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categories,
+                                                               int maxResults);
+
+    /**
+     * scrolls through the POIs within a box, the scroll is cleared when the stream is closed.
+     *
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are returned
+     * @return POIs within the box
+     */
+    Stream<SearchHit<FoodPOI>> streamWithin(GeoBox geoBox, Set<Integer> categories);
+
+    /**
+     * aggregates the POIs within a box into the cells of a geotile grid.
+     *
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are aggregated
+     * @param precision the zoom level of the grid tiles, between 0 and 29
+     * @param maxClusters the maximum number of clusters to return, the ones with the most POIs are returned
+     * @return the non-empty cells and the number of POIs of all categories within the box
+     */
+    FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categories, int precision,
+                                                          int maxClusters);
+
+    /**
+     * finds POIs for a type-ahead search with the completion suggester. The geo context boosts the POIs in the cells
+     * around the location, so the suggestions come from the smallest cells around the location that have matches.
+     *
+     * @param prefix the beginning of the name or of one of the following words of the name
+     * @param location the point the POIs should be near to, like the center of the map
+     * @param count the number of POIs to return
+     * @return the suggested POIs, the ones near the location first
+     */
+    List<FoodPOI> suggest(String prefix, GeoPoint location, int count);
+}
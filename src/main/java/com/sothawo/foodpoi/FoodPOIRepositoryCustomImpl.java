@@ -0,0 +1,353 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.geogrid.GeoGrid;
+import org.elasticsearch.search.aggregations.bucket.geogrid.GeoTileUtils;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.GeoCentroid;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.search.suggest.SuggestBuilders;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+import org.elasticsearch.search.suggest.completion.context.GeoQueryContext;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.GeoDistanceOrder;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+import org.springframework.data.util.StreamUtils;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOIRepositoryCustomImpl implements FoodPOIRepositoryCustom {
+
+    private static final String CLUSTERS = "clusters";
+    private static final String CENTROID = "centroid";
+    private static final String CATEGORIES = "categories";
+    private static final String FILTERED = "filtered";
+    private static final String SUGGESTIONS = "suggestions";
+    /** the maximum number of categories that are counted */
+    private static final int MAX_CATEGORIES = 256;
+    /**
+     * the geohash precisions of the geo context queries of the suggestions, from about 1250 km down to 1.2 km cells.
+     * Each level gets 4 times the boost of the previous one.
+     */
+    private static final int[] SUGGEST_PRECISIONS = {2, 4, FoodPOI.LOCATION_CONTEXT_PRECISION};
+
+    /** the source fields that are read into a {@link FoodPOI}, the suggest inputs are only needed in the index */
+    static final SourceFilter ENTITY_SOURCE =
+        new FetchSourceFilter(new String[]{"id", "name", "category", "location"}, null);
+    /** the source fields that are read into a {@link FoodPOILocation} */
+    private static final String[] LOCATION_SOURCE_FIELDS = {"category", "location"};
+
+    private final ElasticsearchOperations operations;
+    private final RestHighLevelClient client;
+    private final NearestSearchRadius nearestSearchRadius;
+
+    public FoodPOIRepositoryCustomImpl(ElasticsearchOperations operations, RestHighLevelClient client,
+                                       NearestSearchRadius nearestSearchRadius) {
+        this.operations = operations;
+        this.client = client;
+        this.nearestSearchRadius = nearestSearchRadius;
+    }
+
+    @Override
+    public SearchHits<FoodPOI> searchNearest(GeoPoint location, Set<Integer> categories, int count) {
+        double radius = nearestSearchRadius.start(location, categories, count);
+        while (true) {
+            SearchHits<FoodPOI> searchHits =
+                operations.search(nearestQuery(location, categories, count, radius), FoodPOI.class);
+            if (searchHits.getSearchHits().size() >= count || Double.isInfinite(radius)) {
+                List<SearchHit<FoodPOI>> hits = searchHits.getSearchHits();
+                nearestSearchRadius.found(location, categories, hits.size(),
+                    hits.isEmpty() ? Double.NaN : distance(hits.get(hits.size() - 1)));
+                return searchHits;
+            }
+            radius = nearestSearchRadius.next(radius);
+        }
+    }
+
+    /**
+     * @return the distance in km of a hit of a nearest query
+     */
+    static double distance(SearchHit<FoodPOI> searchHit) {
+        return ((Number) searchHit.getSortValues().get(0)).doubleValue();
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categories,
+                                                                      int maxResults) {
+        // the search goes through the client, the operations would map the hits into FoodPOI entities
+        SearchRequest request = new SearchRequest(operations.getIndexCoordinatesFor(FoodPOI.class).getIndexNames())
+            .source(locationsSource(geoBox, categories, maxResults));
+        try {
+            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+            List<FoodPOILocation> locations = new ArrayList<>(response.getHits().getHits().length);
+            for (org.elasticsearch.search.SearchHit hit : response.getHits()) {
+                locations.add(location(hit.getId(), hit.getSourceRef()));
+            }
+            return new FoodPOISearchResult<>(locations, categoryCounts(response.getAggregations()));
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("could not search the POI locations", e);
+        }
+    }
+
+    @Override
+    public Stream<SearchHit<FoodPOI>> streamWithin(GeoBox geoBox, Set<Integer> categories) {
+        NativeSearchQuery query = new NativeSearchQueryBuilder()
+            .withQuery(withinFilter(geoBox, categories))
+            .withSourceFilter(ENTITY_SOURCE)
+            .build();
+        return StreamUtils.createStreamFromIterator(operations.searchForStream(query, FoodPOI.class));
+    }
+
+    @Override
+    public FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categories, int precision,
+                                                                 int maxClusters) {
+        // the search goes through the client, the operations do not allow a search without hits
+        SearchRequest request = new SearchRequest(operations.getIndexCoordinatesFor(FoodPOI.class).getIndexNames())
+            .source(clusterSource(geoBox, categories, precision, maxClusters));
+        Aggregations aggregations;
+        try {
+            aggregations = client.search(request, RequestOptions.DEFAULT).getAggregations();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("could not search the POI clusters", e);
+        }
+
+        List<FoodPOICluster> clusters = new ArrayList<>();
+        if (aggregations != null) {
+            Filter filtered = aggregations.get(FILTERED);
+            GeoGrid grid = (filtered != null ? filtered.getAggregations() : aggregations).get(CLUSTERS);
+            if (grid != null) {
+                for (GeoGrid.Bucket bucket : grid.getBuckets()) {
+                    GeoCentroid centroid = bucket.getAggregations().get(CENTROID);
+                    clusters.add(new FoodPOICluster(bucket.getKeyAsString(), bucket.getDocCount(),
+                        new GeoPoint(centroid.centroid().lat(), centroid.centroid().lon())));
+                }
+            }
+        }
+        return new FoodPOISearchResult<>(clusters, categoryCounts(aggregations));
+    }
+
+    @Override
+    public List<FoodPOI> suggest(String prefix, GeoPoint location, int count) {
+        SearchResponse response = operations.suggest(
+            new SuggestBuilder().addSuggestion(SUGGESTIONS, suggestion(prefix, location, count)),
+            operations.getIndexCoordinatesFor(FoodPOI.class));
+
+        Suggest suggest = response.getSuggest();
+        CompletionSuggestion suggestion = suggest != null ? suggest.getSuggestion(SUGGESTIONS) : null;
+        if (suggestion == null) {
+            return Collections.emptyList();
+        }
+        List<FoodPOI> foodPOIs = new ArrayList<>(count);
+        for (CompletionSuggestion.Entry.Option option : suggestion.getOptions()) {
+            foodPOIs.add(operations.getElasticsearchConverter()
+                .read(FoodPOI.class, Document.from(option.getHit().getSourceAsMap())));
+        }
+        return foodPOIs;
+    }
+
+    static CompletionSuggestionBuilder suggestion(String prefix, GeoPoint location, int count) {
+        org.elasticsearch.common.geo.GeoPoint point =
+            new org.elasticsearch.common.geo.GeoPoint(location.getLat(), location.getLon());
+        List<GeoQueryContext> contexts = new ArrayList<>(SUGGEST_PRECISIONS.length);
+        int boost = 1;
+        for (int precision : SUGGEST_PRECISIONS) {
+            // the neighbour cells are included, so POIs just across a cell border get the same boost
+            contexts.add(GeoQueryContext.builder()
+                .setGeoPoint(point)
+                .setPrecision(precision)
+                .setNeighbours(Collections.singletonList(precision))
+                .setBoost(boost)
+                .build());
+            boost *= 4;
+        }
+        return SuggestBuilders.completionSuggestion("suggest")
+            .prefix(prefix)
+            .size(count)
+            .contexts(Collections.singletonMap(FoodPOI.LOCATION_CONTEXT, contexts));
+    }
+
+    /**
+     * @param radius the radius in km of the geo_distance filter, only the POIs within it are sorted. With {@link
+     * Double#POSITIVE_INFINITY} all POIs are sorted.
+     */
+    static NativeSearchQuery nearestQuery(GeoPoint location, Set<Integer> categories, int count, double radius) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        if (!Double.isInfinite(radius)) {
+            query.filter(QueryBuilders.geoDistanceQuery("location")
+                .point(location.getLat(), location.getLon())
+                .distance(radius, DistanceUnit.KILOMETERS));
+        }
+        if (!categories.isEmpty()) {
+            query.filter(categoryQuery(categories));
+        }
+        return new NativeSearchQueryBuilder()
+            .withQuery(query.hasClauses() ? query : QueryBuilders.matchAllQuery())
+            .withPageable(PageRequest.of(0, count, Sort.by(new GeoDistanceOrder("location", location).withUnit("km"))))
+            .withSourceFilter(ENTITY_SOURCE)
+            .build();
+    }
+
+    static SearchSourceBuilder locationsSource(GeoBox geoBox, Set<Integer> categories, int maxResults) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+            .query(boxQuery(geoBox))
+            .aggregation(categoryCountAggregation())
+            .fetchSource(LOCATION_SOURCE_FIELDS, null)
+            .size(maxResults);
+        if (!categories.isEmpty()) {
+            // a post filter, so the category counts are computed for all POIs in the box
+            source.postFilter(categoryQuery(categories));
+        }
+        return source;
+    }
+
+    /**
+     * reads a {@link FoodPOILocation} from the filtered source of a hit with a streaming parser, without building a
+     * map of the source or mapping an entity. Fields that are not needed are skipped.
+     */
+    static FoodPOILocation location(String id, @Nullable BytesReference source) throws IOException {
+        int category = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        if (source != null) {
+            try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source, XContentType.JSON)) {
+                parser.nextToken();
+                while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                    String field = parser.currentName();
+                    XContentParser.Token token = parser.nextToken();
+                    if ("category".equals(field) && token == XContentParser.Token.VALUE_NUMBER) {
+                        category = parser.intValue();
+                    } else if ("location".equals(field) && token == XContentParser.Token.START_OBJECT) {
+                        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                            String coordinate = parser.currentName();
+                            parser.nextToken();
+                            if ("lat".equals(coordinate)) {
+                                lat = parser.doubleValue();
+                            } else if ("lon".equals(coordinate)) {
+                                lon = parser.doubleValue();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return new FoodPOILocation(id, category, lat, lon);
+    }
+
+    static SearchSourceBuilder clusterSource(GeoBox geoBox, Set<Integer> categories, int precision, int maxClusters) {
+        AbstractAggregationBuilder<?> clusters = AggregationBuilders.geotileGrid(CLUSTERS)
+            .field("location")
+            .precision(Math.max(0, Math.min(GeoTileUtils.MAX_ZOOM, precision)))
+            .size(maxClusters)
+            .subAggregation(AggregationBuilders.geoCentroid(CENTROID).field("location"));
+        if (!categories.isEmpty()) {
+            // the category counts are computed for all POIs in the box, only the clusters are filtered
+            clusters = AggregationBuilders.filter(FILTERED, categoryQuery(categories)).subAggregation(clusters);
+        }
+        return new SearchSourceBuilder()
+            // a query and not a post filter, the aggregation must only see the POIs in the box
+            .query(boxQuery(geoBox))
+            .aggregation(clusters)
+            .aggregation(categoryCountAggregation())
+            // only the aggregations are needed, no hits are fetched
+            .size(0);
+    }
+
+    /**
+     * @return a query for the POIs of the categories within the box, both conditions in filter context
+     */
+    static QueryBuilder withinFilter(GeoBox geoBox, Set<Integer> categories) {
+        BoolQueryBuilder query = boxQuery(geoBox);
+        if (!categories.isEmpty()) {
+            query.filter(categoryQuery(categories));
+        }
+        return query;
+    }
+
+    private static BoolQueryBuilder boxQuery(GeoBox geoBox) {
+        GeoPoint topLeft = geoBox.getTopLeft();
+        GeoPoint bottomRight = geoBox.getBottomRight();
+        return QueryBuilders.boolQuery().filter(QueryBuilders.geoBoundingBoxQuery("location")
+            .setCorners(topLeft.getLat(), topLeft.getLon(), bottomRight.getLat(), bottomRight.getLon()));
+    }
+
+    private static QueryBuilder categoryQuery(Set<Integer> categories) {
+        return QueryBuilders.termsQuery("category", categories);
+    }
+
+    private static AbstractAggregationBuilder<?> categoryCountAggregation() {
+        return AggregationBuilders.terms(CATEGORIES).field("category").size(MAX_CATEGORIES);
+    }
+
+    private static Map<Integer, Long> categoryCounts(@Nullable Aggregations aggregations) {
+        Map<Integer, Long> counts = new HashMap<>();
+        Terms terms = aggregations != null ? aggregations.get(CATEGORIES) : null;
+        if (terms != null) {
+            for (Terms.Bucket bucket : terms.getBuckets()) {
+                counts.put(bucket.getKeyAsNumber().intValue(), bucket.getDocCount());
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Records the calls of the {@link FoodPOIRepository} and {@link ReactiveFoodPOIRepository} methods. The repository
+ * beans are wrapped in a proxy that records the duration of each call in the timer {@code foodpoi.repository} and the
+ * number of returned entities in the distribution summary {@code foodpoi.repository.hits}, both tagged with the
+ * repository and the method name. For a returned {@link Stream} the hits are recorded when the stream is closed, a
+ * returned {@link Flux} or {@link Mono} is timed from its subscription until it terminates.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class FoodPOIRepositoryMetrics implements BeanPostProcessor {
+
+    // a BeanPostProcessor is created early, the registry must not be requested before the repository is processed
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public FoodPOIRepositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        String repository;
+        if (bean instanceof FoodPOIRepository) {
+            repository = FoodPOIRepository.class.getSimpleName();
+        } else if (bean instanceof ReactiveFoodPOIRepository) {
+            repository = ReactiveFoodPOIRepository.class.getSimpleName();
+        } else {
+            return bean;
+        }
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry == null) {
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(new MetricsInterceptor(registry, repository));
+        return proxyFactory.getProxy();
+    }
+
+    /**
+     * @return the number of entities in a repository result, -1 if the result is no collection of entities.
+     */
+    static long hits(@Nullable Object result) {
+        if (result instanceof SearchHits) {
+            return ((SearchHits<?>) result).getSearchHits().size();
+        }
+        if (result instanceof Slice) {
+            return ((Slice<?>) result).getNumberOfElements();
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Optional) {
+            return ((Optional<?>) result).isPresent() ? 1 : 0;
+        }
+        if (result instanceof FoodPOISearchResult) {
+            return ((FoodPOISearchResult<?>) result).getContent().size();
+        }
+        return -1;
+    }
+
+    private static class MetricsInterceptor implements MethodInterceptor {
+
+        private final MeterRegistry registry;
+        private final String repository;
+
+        MetricsInterceptor(MeterRegistry registry, String repository) {
+            this.registry = registry;
+            this.repository = repository;
+        }
+
+        @Override
+        @Nullable
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            String method = invocation.getMethod().getName();
+            if (invocation.getMethod().getDeclaringClass() == Object.class) {
+                return invocation.proceed();
+            }
+            Timer.Sample sample = Timer.start(registry);
+            Object result;
+            try {
+                result = invocation.proceed();
+            } catch (Throwable e) {
+                stop(sample, method, e);
+                throw e;
+            }
+            if (result instanceof Flux) {
+                // a reactive call is timed from the subscription until the completion
+                Flux<?> flux = (Flux<?>) result;
+                return Flux.defer(() -> {
+                    Timer.Sample fluxSample = Timer.start(registry);
+                    AtomicLong count = new AtomicLong();
+                    AtomicReference<Throwable> error = new AtomicReference<>();
+                    return flux
+                        .doOnNext(element -> count.incrementAndGet())
+                        .doOnError(error::set)
+                        .doFinally(signal -> {
+                            stop(fluxSample, method, error.get());
+                            hitsSummary(method).record(count.get());
+                        });
+                });
+            }
+            if (result instanceof Mono) {
+                Mono<?> mono = (Mono<?>) result;
+                return Mono.defer(() -> {
+                    Timer.Sample monoSample = Timer.start(registry);
+                    AtomicReference<Throwable> error = new AtomicReference<>();
+                    return mono
+                        .doOnNext(value -> {
+                            long hits = hits(value);
+                            if (hits >= 0) {
+                                hitsSummary(method).record(hits);
+                            }
+                        })
+                        .doOnError(error::set)
+                        .doFinally(signal -> stop(monoSample, method, error.get()));
+                });
+            }
+            stop(sample, method, null);
+            if (result instanceof Stream) {
+                DistributionSummary summary = hitsSummary(method);
+                AtomicLong count = new AtomicLong();
+                // not peek(), which is skipped by count() on a sized stream
+                return ((Stream<?>) result).filter(element -> count.incrementAndGet() > 0)
+                    .onClose(() -> summary.record(count.get()));
+            }
+            long hits = hits(result);
+            if (hits >= 0) {
+                hitsSummary(method).record(hits);
+            }
+            return result;
+        }
+
+        private void stop(Timer.Sample sample, String method, @Nullable Throwable exception) {
+            sample.stop(Timer.builder("foodpoi.repository")
+                .description("calls of the repository methods")
+                .tag("repository", repository)
+                .tag("method", method)
+                .tag("exception", exception != null ? exception.getClass().getSimpleName() : "none")
+                .register(registry));
+        }
+
+        private DistributionSummary hitsSummary(String method) {
+            return DistributionSummary.builder("foodpoi.repository.hits")
+                .description("number of entities returned by the repository methods")
+                .tag("repository", repository)
+                .tag("method", method)
+                .register(registry);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The POIs or clusters found in a box together with the number of POIs per category in the box. The counts are taken
+ * before the category filter of the query is applied, so they can be shown next to the categories to choose from.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class FoodPOISearchResult<T> {
+
+    private final List<T> content;
+    private final Map<Integer, Long> categoryCounts;
+
+    /**
+     * @param content the found POIs or clusters
+     * @param categoryCounts the number of POIs in the box per category
+     */
+    public FoodPOISearchResult(List<T> content, Map<Integer, Long> categoryCounts) {
+        this.content = Collections.unmodifiableList(content);
+        this.categoryCounts = Collections.unmodifiableMap(categoryCounts);
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public Map<Integer, Long> getCategoryCounts() {
+        return categoryCounts;
+    }
+
+    @Override
+    public String toString() {
+        return "FoodPOISearchResult{" +
+            "content=" + content.size() +
+            ", categoryCounts=" + categoryCounts +
+            '}';
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The queries of the maps. The implementation is selected with the {@code com.sothawo.foodpoi.searchBackend}
+ * property, see {@link FoodPOIConfiguration.SearchBackend}.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public interface FoodPOISearchService {
+
+    /**
+     * @param location the point to search from
+     * @param count the number of POIs to return
+     * @param categories if not empty, only POIs of these categories are returned
+     * @return the POIs nearest to the location, ordered by distance
+     */
+    List<NearbyFoodPOI> searchNearest(GeoPoint location, int count, Set<Integer> categories);
+
+    /**
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are returned
+     * @param maxResults the maximum number of POIs to return
+     * @return the position and category of the POIs within the box and the number of POIs of all categories within
+     * the box
+     */
+    FoodPOISearchResult<FoodPOILocation> searchLocationsWithin(GeoBox geoBox, Set<Integer> categories,
+                                                               int maxResults);
+
+    /**
+     * returns the complete POIs within a box without the category counts. The POIs may be fetched in batches while
+     * the stream is consumed. The stream must be closed.
+     *
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are returned
+     * @param maxResults the maximum number of POIs to return
+     * @return POIs within the box
+     */
+    Stream<FoodPOI> streamWithin(GeoBox geoBox, Set<Integer> categories, int maxResults);
+
+    /**
+     * aggregates the POIs within a box into the cells of a geotile grid.
+     *
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are aggregated
+     * @param precision the zoom level of the grid tiles, between 0 and 29
+     * @param maxClusters the maximum number of clusters to return, the ones with the most POIs are returned
+     * @return the non-empty cells and the number of POIs of all categories within the box
+     */
+    FoodPOISearchResult<FoodPOICluster> searchClustersIn(GeoBox geoBox, Set<Integer> categories, int precision,
+                                                          int maxClusters);
+
+    /**
+     * type-ahead search for POI names.
+     *
+     * @param prefix the beginning of the name or of one of the following words of the name, not case sensitive
+     * @param location the point the POIs should be near to, like the center of the map
+     * @param count the number of POIs to return
+     * @return POIs matching the prefix near the location, ordered by distance
+     */
+    List<NearbyFoodPOI> suggest(String prefix, GeoPoint location, int count);
+}
@@ -0,0 +1,191 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The persisted state of an ingest job. The input files are loaded in ranges (see {@link FoodPOICsvParser.Range}); a
+ * range is acknowledged when all the bulk requests containing its documents have finished. For each file the offset up
+ * to which all ranges are acknowledged is stored together with the ranges after that offset which are already
+ * acknowledged. A resumed job only loads the ranges that were not acknowledged.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class IngestCheckpoint {
+
+    private String jobId;
+    private IngestJob.Mode mode;
+    /** the index that is written to, for {@link IngestJob.Mode#REINDEX} the new versioned index */
+    private String index;
+    private FoodPOIConfiguration.Ingest.Parser parser;
+    private long rangeSize;
+    private boolean completed;
+    /** number of bulk requests that were finished when the checkpoint was written */
+    private long acknowledgedBatches;
+    private List<InputFile> inputs = new ArrayList<>();
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public IngestJob.Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(IngestJob.Mode mode) {
+        this.mode = mode;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public FoodPOIConfiguration.Ingest.Parser getParser() {
+        return parser;
+    }
+
+    public void setParser(FoodPOIConfiguration.Ingest.Parser parser) {
+        this.parser = parser;
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    public void setRangeSize(long rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public long getAcknowledgedBatches() {
+        return acknowledgedBatches;
+    }
+
+    public void setAcknowledgedBatches(long acknowledgedBatches) {
+        this.acknowledgedBatches = acknowledgedBatches;
+    }
+
+    public List<InputFile> getInputs() {
+        return inputs;
+    }
+
+    public void setInputs(List<InputFile> inputs) {
+        this.inputs = inputs;
+    }
+
+    public static class InputFile {
+        private String path;
+        private long size;
+        private long lastModified;
+        /** all ranges before this offset are acknowledged */
+        private long offset;
+        /** start and end offsets of the acknowledged ranges after {@link #offset} */
+        private TreeMap<Long, Long> acknowledgedRanges = new TreeMap<>();
+
+        public InputFile() {
+        }
+
+        public InputFile(Path file) throws IOException {
+            this.path = file.toString();
+            this.size = Files.size(file);
+            this.lastModified = Files.getLastModifiedTime(file).toMillis();
+        }
+
+        /**
+         * @return {@literal true} if the file no longer has the size and modification time it had when the checkpoint
+         * was created
+         */
+        public boolean hasChanged() throws IOException {
+            Path file = Paths.get(path);
+            return !Files.isRegularFile(file) || Files.size(file) != size
+                || Files.getLastModifiedTime(file).toMillis() != lastModified;
+        }
+
+        public boolean isAcknowledged(FoodPOICsvParser.Range range) {
+            return range.getEnd() <= offset || acknowledgedRanges.containsKey(range.getStart());
+        }
+
+        public void acknowledge(FoodPOICsvParser.Range range) {
+            acknowledgedRanges.put(range.getStart(), range.getEnd());
+            Long end;
+            while ((end = acknowledgedRanges.remove(offset)) != null) {
+                offset = end;
+            }
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public void setOffset(long offset) {
+            this.offset = offset;
+        }
+
+        public TreeMap<Long, Long> getAcknowledgedRanges() {
+            return acknowledgedRanges;
+        }
+
+        public void setAcknowledgedRanges(TreeMap<Long, Long> acknowledgedRanges) {
+            this.acknowledgedRanges = acknowledgedRanges;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A running or finished ingest job. The getters provide the progress and throughput of the job, the rates are computed
+ * over the part of the input that was processed in this run.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class IngestJob {
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    public enum Mode {
+        /** index all POIs */
+        FULL,
+        /** index only new and changed POIs and delete the removed ones */
+        DELTA,
+        /** index all POIs into a new index and switch the alias to it when finished */
+        REINDEX
+    }
+
+    private final String id;
+    private final Mode mode;
+    private final Instant started = Instant.now();
+    private final long totalBytes;
+    private final long skippedBytes;
+    private final int ranges;
+    private final AtomicInteger acknowledgedRanges;
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    private volatile State state = State.RUNNING;
+    @Nullable private volatile Instant finished;
+    @Nullable private volatile String message;
+    @Nullable private volatile FoodPOICsvParser parser;
+    @Nullable private volatile FoodPOIBulkIndexer.Session session;
+
+    public IngestJob(String id, Mode mode, long totalBytes, long skippedBytes, int ranges, int skippedRanges) {
+        this.id = id;
+        this.mode = mode;
+        this.totalBytes = totalBytes;
+        this.skippedBytes = skippedBytes;
+        this.ranges = ranges;
+        this.acknowledgedRanges = new AtomicInteger(skippedRanges);
+    }
+
+    void running(FoodPOICsvParser parser, FoodPOIBulkIndexer.Session session) {
+        this.parser = parser;
+        this.session = session;
+    }
+
+    void rangeAcknowledged() {
+        acknowledgedRanges.incrementAndGet();
+    }
+
+    void unchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void deleted(long count) {
+        deleted.addAndGet(count);
+    }
+
+    void completed() {
+        finished = Instant.now();
+        state = State.COMPLETED;
+    }
+
+    void failed(String message) {
+        finished = Instant.now();
+        this.message = message;
+        state = State.FAILED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    @Nullable
+    public Instant getFinished() {
+        return finished;
+    }
+
+    @Nullable
+    public String getMessage() {
+        return message;
+    }
+
+    public int getRanges() {
+        return ranges;
+    }
+
+    public int getAcknowledgedRanges() {
+        return acknowledgedRanges.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getProcessedBytes() {
+        FoodPOICsvParser parser = this.parser;
+        return skippedBytes + (parser != null ? parser.getBytes() : 0);
+    }
+
+    public long getDocuments() {
+        FoodPOIBulkIndexer.Session session = this.session;
+        return session != null ? session.getAdded() : 0;
+    }
+
+    /** @return the number of POIs that were skipped in delta mode because they did not change */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /** @return the number of POIs that were deleted in delta mode because they are no longer in the input */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getIndexed() {
+        FoodPOIBulkIndexer.Session session = this.session;
+        return session != null ? session.getIndexed() : 0;
+    }
+
+    public long getFailed() {
+        FoodPOIBulkIndexer.Session session = this.session;
+        return session != null ? session.getFailed() : 0;
+    }
+
+    public long getAcknowledgedBatches() {
+        FoodPOIBulkIndexer.Session session = this.session;
+        return session != null ? session.getBulks() : 0;
+    }
+
+    public long getLines() {
+        FoodPOICsvParser parser = this.parser;
+        return parser != null ? parser.getLines() : 0;
+    }
+
+    public long getMalformedLines() {
+        FoodPOICsvParser parser = this.parser;
+        return parser != null ? parser.getMalformedLines() : 0;
+    }
+
+    public long getDocsPerSecond() {
+        return getIndexed() * 1000 / elapsedMillis();
+    }
+
+    public long getBytesPerSecond() {
+        return (getProcessedBytes() - skippedBytes) * 1000 / elapsedMillis();
+    }
+
+    /**
+     * @return the estimated number of seconds until all bytes are processed, -1 if no estimate is possible
+     */
+    public long getEtaSeconds() {
+        if (state != State.RUNNING) {
+            return 0;
+        }
+        long bytesPerSecond = getBytesPerSecond();
+        return bytesPerSecond > 0 ? (totalBytes - getProcessedBytes()) / bytesPerSecond : -1;
+    }
+
+    private long elapsedMillis() {
+        Instant finished = this.finished;
+        Instant end = finished != null ? finished : Instant.now();
+        return Math.max(1, end.toEpochMilli() - started.toEpochMilli());
+    }
+}
@@ -23,44 +23,103 @@ import com.sothawo.mapjfx.MapType;
 import com.sothawo.mapjfx.MapView;
 import com.sothawo.mapjfx.Marker;
 import com.sothawo.mapjfx.event.MapViewEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.reactivex.Observable;
 import io.reactivex.rxjavafx.observables.JavaFxObservable;
 import io.reactivex.rxjavafx.schedulers.JavaFxScheduler;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 import javafx.fxml.FXML;
+import javafx.geometry.Side;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuButton;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
 import net.rgielen.fxweaver.core.FxmlView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.elasticsearch.core.geo.GeoBox;
 import org.springframework.data.elasticsearch.core.geo.GeoPoint;
-import org.springframework.data.elasticsearch.core.query.GeoDistanceOrder;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
+ * The time from a change of the slave map's extent or a click into the master map until the labels are shown is
+ * recorded in the timer {@code foodpoi.ui.latency}, the time needed to update the labels in {@code foodpoi.ui.render};
+ * both are tagged with the map.
+ * <p>
+ * The categories selected in the category menu are sent as filter with the queries of both maps. The menu shows the
+ * number of POIs per category in the cached tiles around the viewport, they are returned with the viewport data.
+ * <p>
+ * The search field shows name suggestions for the center of the master map while typing; selecting one moves the
+ * maps to the POI.
+ * <p>
+ * In dense areas the viewport map shows only some of the POIs, see {@link ViewportDecimator}.
+ * <p>
+ * When the data of the viewport is shown, the tiles around it are loaded into the viewport caches in the background,
+ * see {@link ViewportPrefetcher}, so that the next pan or zoom can be shown without waiting for a query.
+ *
  * @author P.J. Meisch (pj.meisch@sothawo.com)
  */
 @Component
+@Profile("!" + FoodPOIApplication.HEADLESS)
 @FxmlView("/MainController.fxml") // if / is omitted, resource loader expects the fxml in the package
 public class MainController {
 
     private static final Logger LOG = LoggerFactory.getLogger(MainController.class);
 
     private static final int ZOOM_DEFAULT = 14;
+    private static final int SUGGESTIONS = 10;
     private static final Coordinate coordKarlsruheCastle = new Coordinate(49.013517, 8.404435);
 
     private final FoodPOIConfiguration configuration;
-    private final FoodPOIRepository repository;
+    private final FoodPOISearchService searchService;
 
     private final List<MapLabel> labelsMaster = new ArrayList<>();
     private final Marker markerMaster = Marker.createProvided(Marker.Provided.GREEN);
 
-    private Extent extentSlave;
-    private final List<MapLabelSlave> labelsSlave = new ArrayList<>();
+    private final MapLabelDiff<FoodPOILocation, MapLabelSlave> poiLabelsSlave;
+    private final MapLabelDiff<FoodPOICluster, MapLabelSlave> clusterLabelsSlave;
+    /** the menu items of the categories that were seen in the viewport so far, sorted by category */
+    private final Map<Integer, CheckMenuItem> categoryItems = new TreeMap<>();
+    /** viewport requests that are not triggered by the map, like a changed category filter */
+    private final PublishSubject<ViewportRequest> viewportRequests = PublishSubject.create();
+    /** viewport requests whose data is shown, the tiles around them are prefetched */
+    private final PublishSubject<ViewportRequest> shownViewports = PublishSubject.create();
+    /** tracks the movements of the maps, only accessed on the JavaFX thread */
+    private final ViewportPrefetcher prefetcher;
+    private final ViewportDecimator decimator;
+
+    private final Timer latencySlave;
+    private final Timer latencyMaster;
+    private final Timer renderSlave;
+    private final Timer renderMaster;
+    /** nanoTime of the last click into the master map, only accessed on the JavaFX thread */
+    private long clickedMaster;
+    /** the selected categories, only accessed on the JavaFX thread */
+    private CategoryFilter categoryFilter;
+    /** the last viewport request of the slave map, only accessed on the JavaFX thread */
+    @Nullable private ViewportRequest lastViewportRequest;
+    /** created in {@link #initSearch()}, a JavaFX control needs the toolkit, which is not started with the bean */
+    private ContextMenu suggestionsMenu;
 
     @FXML
     private MapView mapViewSlave;
@@ -70,16 +129,96 @@ public class MainController {
     private Label labelMaster;
     @FXML
     private Label labelSlave;
+    @FXML
+    private MenuButton menuCategories;
+    @FXML
+    private TextField textSearch;
 
-    public MainController(FoodPOIConfiguration configuration, FoodPOIRepository repository) {
+    public MainController(FoodPOIConfiguration configuration, FoodPOISearchService searchService,
+                          MeterRegistry meterRegistry) {
         this.configuration = configuration;
-        this.repository = repository;
+        this.searchService = searchService;
+        FoodPOIConfiguration.Viewport viewport = configuration.getViewport();
+        this.categoryFilter = new CategoryFilter(Collections.emptySet(), viewport);
+        this.prefetcher = new ViewportPrefetcher(viewport.getCacheTileZoomOffset(), viewport.getPrefetchLookahead());
+        this.decimator = new ViewportDecimator(viewport.getDecimationCellSize(), viewport.getDecimationMaxPerCell(),
+            viewport.getCategoryPriorities());
+        this.poiLabelsSlave = new MapLabelDiff<>(FoodPOILocation::getId, this::poiLabel, this::addLabelSlave,
+            this::removeLabelSlave, viewport.getMaxPois());
+        // the text of a cluster label is its count, so cluster labels cannot be reused
+        this.clusterLabelsSlave = new MapLabelDiff<>(this::clusterId, (cluster, unused) -> clusterLabel(cluster),
+            this::addLabelSlave, this::removeLabelSlave, 0);
+        this.latencySlave = latencyTimer(meterRegistry, "slave");
+        this.latencyMaster = latencyTimer(meterRegistry, "master");
+        this.renderSlave = renderTimer(meterRegistry, "slave");
+        this.renderMaster = renderTimer(meterRegistry, "master");
+    }
+
+    private static Timer latencyTimer(MeterRegistry meterRegistry, String map) {
+        return Timer.builder("foodpoi.ui.latency")
+            .description("time from the map event until the labels are shown")
+            .tag("map", map)
+            .register(meterRegistry);
+    }
+
+    private static Timer renderTimer(MeterRegistry meterRegistry, String map) {
+        return Timer.builder("foodpoi.ui.render")
+            .description("time to update the labels of the map")
+            .tag("map", map)
+            .register(meterRegistry);
     }
 
     @FXML
     public void initialize() {
         initMapViewSlave();
         initMapViewMaster();
+        initSearch();
+    }
+
+    private void initSearch() {
+        suggestionsMenu = new ContextMenu();
+        JavaFxObservable.valuesOf(textSearch.textProperty())
+            .filter(text -> mapViewMaster.getInitialized())
+            // the map state must be read on the JavaFX thread
+            .map(text -> new SuggestRequest(text.strip(), mapViewMaster.getCenter()))
+            // the first keystroke is sent at once, then at most one request per interval with the latest text
+            .throttleLatest(50, TimeUnit.MILLISECONDS, true)
+            // a new text cancels the query for the previous one
+            .switchMap(request -> request.prefix.isEmpty()
+                ? Observable.just(Collections.<NearbyFoodPOI>emptyList())
+                : query("suggest", () -> searchService.suggest(request.prefix, request.location, SUGGESTIONS)))
+            .observeOn(JavaFxScheduler.platform())
+            .subscribe(this::showSuggestions);
+    }
+
+    private void showSuggestions(List<NearbyFoodPOI> suggestions) {
+        if (suggestions.isEmpty()) {
+            suggestionsMenu.hide();
+            return;
+        }
+        suggestionsMenu.getItems().setAll(suggestions.stream()
+            .map(nearbyFoodPOI -> {
+                MenuItem item = new MenuItem(String.format("%1$s - %2$3.1f km", nearbyFoodPOI.getFoodPOI().getName(),
+                    nearbyFoodPOI.getDistance()));
+                item.setOnAction(event -> showSuggestion(nearbyFoodPOI.getFoodPOI()));
+                return item;
+            })
+            .collect(Collectors.toList()));
+        if (!suggestionsMenu.isShowing()) {
+            suggestionsMenu.show(textSearch, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    private void showSuggestion(FoodPOI foodPOI) {
+        Coordinate position = new Coordinate(foodPOI.getLocation().getLat(), foodPOI.getLocation().getLon());
+        markerMaster.setPosition(position);
+        if (!markerMaster.getVisible()) {
+            mapViewMaster.addMarker(markerMaster);
+            markerMaster.setVisible(true);
+        }
+        labelMaster.setText(foodPOI.getName());
+        mapViewMaster.setCenter(position);
+        syncSlave();
     }
 
     private void initMapViewMaster() {
@@ -92,11 +231,11 @@ public class MainController {
         initMap(mapViewMaster, mapType, Configuration.builder().build());
         markerMaster.setVisible(false);
 
-        mapViewMaster.addEventHandler(MapViewEvent.MAP_CLICKED, event -> {
-            event.consume();
-
-            if (mapViewMaster.getInitialized()) {
-
+        JavaFxObservable.eventsOf(mapViewMaster, MapViewEvent.MAP_CLICKED)
+            .doOnNext(MapViewEvent::consume)
+            .filter(event -> mapViewMaster.getInitialized())
+            .map(event -> {
+                clickedMaster = System.nanoTime();
                 Coordinate newPosition = event.getCoordinate().normalize();
                 markerMaster.setPosition(newPosition);
                 if (!markerMaster.getVisible()) {
@@ -104,14 +243,16 @@ public class MainController {
                     markerMaster.setVisible(true);
                 }
                 labelMaster.textProperty().set(newPosition.toString());
-
-                GeoPoint geoPoint = new GeoPoint(newPosition.getLatitude(), newPosition.getLongitude());
-                SearchHits<FoodPOI> searchHits = repository.searchTop5By(Sort.by(new GeoDistanceOrder("location", geoPoint).withUnit("km")));
-                displaySearchHitsInMapMaster(searchHits);
-
                 syncSlave();
-            }
-        });
+                return new GeoPoint(newPosition.getLatitude(), newPosition.getLongitude());
+            })
+            // a new click cancels the query for the previous one
+            .switchMap(geoPoint -> {
+                Set<Integer> categories = categoryFilter.categories;
+                return query("nearest", () -> searchService.searchNearest(geoPoint, 5, categories));
+            })
+            .observeOn(JavaFxScheduler.platform())
+            .subscribe(this::displayNearestInMapMaster);
         mapViewMaster.addEventHandler(MapViewEvent.MAP_BOUNDING_EXTENT, event -> {
             syncSlave();
         });
@@ -121,6 +262,8 @@ public class MainController {
         Coordinate center = mapViewMaster.getCenter();
         mapViewSlave.setCenter(center);
         double zoom = mapViewMaster.getZoom();
+        // the slave map is not interactive, all its movements come from here
+        prefetcher.moved(center.getLatitude(), center.getLongitude(), (int) zoom, System.nanoTime());
         mapViewSlave.setZoom(zoom);
         mapViewMaster.setZoom(zoom);
     }
@@ -133,14 +276,69 @@ public class MainController {
         }
         initMap(mapViewSlave, mapType, Configuration.builder().interactive(false).showZoomControls(false).build());
 
-        JavaFxObservable.eventsOf(mapViewSlave, MapViewEvent.MAP_BOUNDING_EXTENT)
+        Observable<ViewportRequest> requests = JavaFxObservable.eventsOf(mapViewSlave, MapViewEvent.MAP_BOUNDING_EXTENT)
+            .doOnNext(MapViewEvent::consume)
+            .filter(event -> mapViewSlave.getInitialized())
+            // the map state must be read on the JavaFX thread
+            .map(event -> new ViewportRequest(event.getExtent(), (int) mapViewSlave.getZoom(), categoryFilter))
+            .doOnNext(request -> lastViewportRequest = request)
+            .mergeWith(viewportRequests)
+            .share();
+        requests
             .debounce(250, TimeUnit.MILLISECONDS)
+            // a new extent cancels the query for the previous one
+            .switchMap(request -> query("viewport", () -> queryViewport(request)))
             .observeOn(JavaFxScheduler.platform())
-            .subscribe(event -> {
-                event.consume();
-                extentSlave = event.getExtent();
-                updateMapSlave();
-            });
+            .subscribe(this::displayViewport);
+
+        if (configuration.getViewport().getPrefetchTiles() > 0) {
+            shownViewports
+                // the prefetch runs while the map is idle, any change of the map stops it
+                .switchMap(request -> prefetch(request).takeUntil(requests))
+                .subscribe(target -> LOG.debug("prefetched {}", target));
+        }
+    }
+
+    /**
+     * loads tiles around a viewport into the caches in the background, at most the configured number of tiles and
+     * with the configured number of concurrent queries. Runs on the JavaFX thread, the queries on the io scheduler.
+     */
+    private Observable<ViewportPrefetcher.Target> prefetch(ViewportRequest request) {
+        FoodPOIConfiguration.Viewport viewport = configuration.getViewport();
+        CategoryFilter filter = request.categoryFilter;
+        List<ViewportPrefetcher.Target> targets = prefetcher.plan(geoBox(request.extent), request.zoom,
+            target -> isCached(filter, target), viewport.getPrefetchTiles());
+        return Observable.fromIterable(targets)
+            .flatMap(target -> query("prefetch", () -> prefetch(filter, target)), viewport.getPrefetchConcurrency());
+    }
+
+    private boolean isCached(CategoryFilter filter, ViewportPrefetcher.Target target) {
+        return target.getZoom() < configuration.getViewport().getClusterBelowZoom()
+            ? filter.clusterCache.isCached(target.getTile())
+            : filter.poiCache.isCached(target.getTile());
+    }
+
+    private ViewportPrefetcher.Target prefetch(CategoryFilter filter, ViewportPrefetcher.Target target) {
+        List<ViewportTileCache.Tile> tiles = Collections.singletonList(target.getTile());
+        if (target.getZoom() < configuration.getViewport().getClusterBelowZoom()) {
+            filter.clusterCache.prefetch(tiles, tilesToLoad -> loadClusters(tilesToLoad, filter.categories));
+        } else {
+            filter.poiCache.prefetch(tiles, tilesToLoad -> loadPOIs(tilesToLoad, filter.categories));
+        }
+        return target;
+    }
+
+    /**
+     * runs a search call on the io scheduler within the configured query timeout. The call is interrupted when the
+     * returned observable is disposed. Errors and timeouts are logged and complete the observable without a result,
+     * so the event subscriptions stay active.
+     */
+    private <T> Observable<T> query(String name, Callable<T> callable) {
+        return Observable.fromCallable(callable)
+            .subscribeOn(Schedulers.io())
+            .timeout(configuration.getViewport().getQueryTimeout().toMillis(), TimeUnit.MILLISECONDS)
+            .doOnError(e -> LOG.warn("{} query failed: {}", name, e.toString()))
+            .onErrorResumeNext(Observable.empty());
     }
 
     private void initMap(MapView mapView, MapType mapType, Configuration mapConfiguration) {
@@ -156,65 +354,305 @@ public class MainController {
         mapView.initialize(mapConfiguration);
     }
 
-    private void updateMapSlave() {
-        if (mapViewSlave.getInitialized()) {
+    /**
+     * loads the clusters or POIs of a viewport, runs on a background thread.
+     */
+    private ViewportResult queryViewport(ViewportRequest request) {
+        Extent extent = request.extent;
+        GeoBox geoBox = geoBox(extent);
+        FoodPOIConfiguration.Viewport viewport = configuration.getViewport();
+
+        List<ViewportTileCache.Tile> tiles = ViewportTileCache.Tile.covering(geoBox,
+            Math.max(0, request.zoom - viewport.getCacheTileZoomOffset()));
+
+        CategoryFilter filter = request.categoryFilter;
+        ViewportResult result = new ViewportResult(request);
+        if (request.zoom < viewport.getClusterBelowZoom()) {
+            Map<String, FoodPOICluster> clusters = new LinkedHashMap<>();
+            filter.clusterCache.get(tiles, tilesToLoad -> loadClusters(tilesToLoad, filter.categories)).values()
+                .forEach(tileClusters -> {
+                    addCategoryCounts(result.categoryCounts, tileClusters);
+                    tileClusters.getContent().stream()
+                        .filter(cluster -> contains(extent, cluster.getLocation()))
+                        .forEach(cluster -> clusters.putIfAbsent(cluster.getKey(), cluster));
+                });
+            result.clusters.addAll(clusters.values());
+            long count = result.clusters.stream().mapToLong(FoodPOICluster::getCount).sum();
+            result.status = String.format("%d POIs in %d clusters", count, clusters.size());
+        } else {
+            // POIs on a tile border are returned for both tiles
+            Map<String, FoodPOILocation> foodPOIs = new LinkedHashMap<>();
+            filter.poiCache.get(tiles, tilesToLoad -> loadPOIs(tilesToLoad, filter.categories)).values()
+                .forEach(tilePOIs -> {
+                    addCategoryCounts(result.categoryCounts, tilePOIs);
+                    tilePOIs.getContent().stream()
+                        .filter(foodPOI -> contains(extent, foodPOI.getLat(), foodPOI.getLon()))
+                        .forEach(foodPOI -> foodPOIs.putIfAbsent(foodPOI.getId(), foodPOI));
+                });
+            // the tiles are decimated when they are loaded, this thins out the cells on the tile borders
+            decimator.decimate(foodPOIs.values(), request.zoom).stream()
+                .limit(viewport.getMaxPois())
+                .forEach(result.foodPOIs::add);
+            result.status = result.foodPOIs.size() < foodPOIs.size()
+                ? String.format("%d of %d POIs", result.foodPOIs.size(), foodPOIs.size())
+                : String.format("%d POIs", foodPOIs.size());
+        }
+        LOG.debug("viewport tile cache: {} hits, {} misses, {} evictions, {} prefetched",
+            filter.clusterCache.getHits() + filter.poiCache.getHits(),
+            filter.clusterCache.getMisses() + filter.poiCache.getMisses(),
+            filter.clusterCache.getEvictions() + filter.poiCache.getEvictions(),
+            filter.clusterCache.getPrefetched() + filter.poiCache.getPrefetched());
+        return result;
+    }
 
-            GeoBox geoBox = new GeoBox(new GeoPoint(extentSlave.getMax().getLatitude(), extentSlave.getMin().getLongitude()),
-                new GeoPoint(extentSlave.getMin().getLatitude(), extentSlave.getMax().getLongitude()));
+    private static GeoBox geoBox(Extent extent) {
+        return new GeoBox(new GeoPoint(extent.getMax().getLatitude(), extent.getMin().getLongitude()),
+            new GeoPoint(extent.getMin().getLatitude(), extent.getMax().getLongitude()));
+    }
 
-            SearchHits<FoodPOI> searchHits = null;
-            try {
-                searchHits = repository.searchByLocationNear(geoBox);
-            } catch (Throwable t) {
-                LOG.error("OOPS", t);
-            }
+    private static void addCategoryCounts(Map<Integer, Long> categoryCounts, FoodPOISearchResult<?> tileResult) {
+        tileResult.getCategoryCounts().forEach((category, count) -> categoryCounts.merge(category, count, Long::sum));
+    }
+
+    private void displayViewport(ViewportResult result) {
+        LOG.debug("updating slave map");
+        renderSlave.record(() -> {
+            clusterLabelsSlave.update(result.clusters);
+            poiLabelsSlave.update(result.foodPOIs);
+            labelSlave.setText(result.status);
+            updateCategoryMenu(result.categoryCounts);
+        });
+        latencySlave.record(System.nanoTime() - result.request.started, TimeUnit.NANOSECONDS);
+        LOG.debug("finished updating slave map, {} labels added, {} removed",
+            clusterLabelsSlave.getAdded() + poiLabelsSlave.getAdded(),
+            clusterLabelsSlave.getRemoved() + poiLabelsSlave.getRemoved());
+        shownViewports.onNext(result.request);
+    }
+
+    private Map<ViewportTileCache.Tile, FoodPOISearchResult<FoodPOICluster>> loadClusters(
+        List<ViewportTileCache.Tile> tiles, Set<Integer> categories) {
+        FoodPOIConfiguration.Viewport viewport = configuration.getViewport();
+        Map<ViewportTileCache.Tile, FoodPOISearchResult<FoodPOICluster>> clusters = new HashMap<>();
+        for (ViewportTileCache.Tile tile : tiles) {
+            // the precision is derived from the tile and not from the map zoom as it is part of the cached data
+            int precision = tile.getZoom() + viewport.getCacheTileZoomOffset() + viewport.getClusterPrecisionOffset();
+            clusters.put(tile, searchService.searchClustersIn(tile.getGeoBox(), categories, precision,
+                viewport.getMaxClusters()));
+        }
+        return clusters;
+    }
 
-            displaySearchHitsInMapSlave(searchHits);
+    private Map<ViewportTileCache.Tile, FoodPOISearchResult<FoodPOILocation>> loadPOIs(
+        List<ViewportTileCache.Tile> tiles, Set<Integer> categories) {
+        FoodPOIConfiguration.Viewport viewport = configuration.getViewport();
+        int querySize = viewport.getTileQuerySize();
+        Map<ViewportTileCache.Tile, FoodPOISearchResult<FoodPOILocation>> foodPOIs = new HashMap<>();
+        for (ViewportTileCache.Tile tile : tiles) {
+            // the slave map only shows a marker per POI, so only the position and category are loaded
+            FoodPOISearchResult<FoodPOILocation> tilePOIs =
+                searchService.searchLocationsWithin(tile.getGeoBox(), categories, querySize);
+            int mapZoom = tile.getZoom() + viewport.getCacheTileZoomOffset();
+            Collection<FoodPOILocation> locations = tilePOIs.getContent();
+            if (locations.size() >= querySize) {
+                // the quarters down to 32 x 32 pixels at the zoom level of the map
+                Map<String, FoodPOILocation> quarterLocations = new LinkedHashMap<>();
+                loadQuarters(tile, categories, querySize, mapZoom + 3, quarterLocations);
+                locations = quarterLocations.values();
+            }
+            // the cells of the decimation do not depend on the viewport, so the tiles are cached decimated
+            foodPOIs.put(tile, new FoodPOISearchResult<>(decimator.decimate(locations, mapZoom),
+                tilePOIs.getCategoryCounts()));
         }
+        return foodPOIs;
     }
 
-    private void displaySearchHitsInMapSlave(SearchHits<FoodPOI> searchHits) {
+    /**
+     * loads the POIs of a tile that has more POIs than one query returns. The hits come in the order of the index,
+     * which is sorted by the Morton code of the location, so a truncated result covers only a part of the tile. The
+     * tile is loaded in quarters instead, which are split again as long as they are truncated.
+     */
+    private void loadQuarters(ViewportTileCache.Tile tile, Set<Integer> categories, int querySize, int maxZoom,
+                              Map<String, FoodPOILocation> locations) {
+        for (int quarter = 0; quarter < 4; quarter++) {
+            ViewportTileCache.Tile child = new ViewportTileCache.Tile(tile.getZoom() + 1,
+                2 * tile.getX() + quarter % 2, 2 * tile.getY() + quarter / 2);
+            List<FoodPOILocation> content =
+                searchService.searchLocationsWithin(child.getGeoBox(), categories, querySize).getContent();
+            if (content.size() >= querySize && child.getZoom() < maxZoom) {
+                loadQuarters(child, categories, querySize, maxZoom, locations);
+            } else {
+                if (content.size() >= querySize) {
+                    LOG.warn("more than {} POIs in tile {}, the tile is not loaded completely", querySize, child);
+                }
+                // POIs on a border are returned for both quarters
+                content.forEach(location -> locations.putIfAbsent(location.getId(), location));
+            }
+        }
+    }
 
-        List<MapLabelSlave> newLabels = new ArrayList<>();
+    private static boolean contains(Extent extent, GeoPoint location) {
+        return contains(extent, location.getLat(), location.getLon());
+    }
 
-        if (searchHits != null) {
+    private static boolean contains(Extent extent, double lat, double lon) {
+        return lat >= extent.getMin().getLatitude() && lat <= extent.getMax().getLatitude()
+            && lon >= extent.getMin().getLongitude() && lon <= extent.getMax().getLongitude();
+    }
 
-            LOG.debug("updating slave map");
-            searchHits.forEach(searchHit -> {
-                FoodPOI foodPOI = searchHit.getContent();
-                MapLabelSlave mapLabel = new MapLabelSlave(foodPOI.getId().toString(), "&nbsp;");
-                mapLabel.setPosition(new Coordinate(foodPOI.getLocation().getLat(), foodPOI.getLocation().getLon()));
-//                mapLabel.setCssClass(foodPOI.getCategory().toString());
+    private MapLabelSlave poiLabel(FoodPOILocation foodPOI, @Nullable MapLabelSlave unusedLabel) {
+        Coordinate position = new Coordinate(foodPOI.getLat(), foodPOI.getLon());
+        MapLabelSlave mapLabel;
+        if (unusedLabel != null) {
+            mapLabel = unusedLabel.reuse(foodPOI.getId(), position);
+        } else {
+            mapLabel = new MapLabelSlave(foodPOI.getId(), "&nbsp;");
+            mapLabel.setPosition(position);
+        }
+        // a reused label may have been used for a POI of another category
+        mapLabel.setCssClass(categoryCssClass(foodPOI.getCategory()));
+        return mapLabel;
+    }
 
-                newLabels.add(mapLabel);
+    /**
+     * @return the CSS class of the labels of a category, css class names must not start with a digit
+     */
+    private static String categoryCssClass(Integer category) {
+        return "category-" + category;
+    }
 
-                if (labelsSlave.contains(mapLabel)) {
-                    labelsSlave.remove(mapLabel);
-                } else {
-                    mapViewSlave.addLabel(mapLabel);
-                }
-            });
+    private String categoryName(Integer category) {
+        return configuration.getViewport().getCategoryNames().getOrDefault(category, category.toString());
+    }
 
-            labelsSlave.forEach(mapViewSlave::removeLabel);
-            labelsSlave.clear();
-            labelsSlave.addAll(newLabels);
+    /**
+     * adds the categories that are new in the viewport to the category menu and updates the counts of all entries.
+     */
+    private void updateCategoryMenu(Map<Integer, Long> categoryCounts) {
+        boolean added = false;
+        for (Integer category : categoryCounts.keySet()) {
+            if (!categoryItems.containsKey(category)) {
+                CheckMenuItem item = new CheckMenuItem();
+                item.selectedProperty().addListener((observable, oldValue, newValue) -> categoriesChanged());
+                categoryItems.put(category, item);
+                added = true;
+            }
+        }
+        if (added) {
+            menuCategories.getItems().setAll(categoryItems.values());
+        }
+        categoryItems.forEach((category, item) -> item.setText(String.format("%s (%d)", categoryName(category),
+            categoryCounts.getOrDefault(category, 0L))));
+    }
 
-            labelsSlave.forEach(mapLabel -> mapLabel.setVisible(true));
-            LOG.debug("finished updating slave map");
+    /**
+     * replaces the category filter with the selected categories and reloads the viewport. The tile caches belong to
+     * the filter, so data loaded for the previous selection is not shown.
+     */
+    private void categoriesChanged() {
+        Set<Integer> categories = new HashSet<>();
+        categoryItems.forEach((category, item) -> {
+            if (item.isSelected()) {
+                categories.add(category);
+            }
+        });
+        categoryFilter = new CategoryFilter(categories, configuration.getViewport());
+        menuCategories.setText(categories.isEmpty() ? "all categories" : categories.size() + " categories");
+        if (lastViewportRequest != null) {
+            viewportRequests.onNext(new ViewportRequest(lastViewportRequest.extent, lastViewportRequest.zoom,
+                categoryFilter));
         }
     }
 
-    private void displaySearchHitsInMapMaster(SearchHits<FoodPOI> searchHits) {
+    private String clusterId(FoodPOICluster cluster) {
+        // the count is part of the id, so a label is replaced when the count of its cell changes
+        return "cluster/" + cluster.getKey() + '/' + cluster.getCount();
+    }
+
+    private MapLabelSlave clusterLabel(FoodPOICluster cluster) {
+        MapLabelSlave mapLabel = new MapLabelSlave(clusterId(cluster), Long.toString(cluster.getCount()));
+        mapLabel.setPosition(new Coordinate(cluster.getLocation().getLat(), cluster.getLocation().getLon()));
+        mapLabel.setCssClass("cluster");
+        return mapLabel;
+    }
+
+    private void addLabelSlave(MapLabelSlave mapLabel) {
+        mapViewSlave.addLabel(mapLabel);
+        mapLabel.setVisible(true);
+    }
+
+    private void removeLabelSlave(MapLabelSlave mapLabel) {
+        mapViewSlave.removeLabel(mapLabel);
+    }
+
+    private void displayNearestInMapMaster(List<NearbyFoodPOI> nearbyFoodPOIs) {
+        renderMaster.record(() -> updateLabelsMaster(nearbyFoodPOIs));
+        latencyMaster.record(System.nanoTime() - clickedMaster, TimeUnit.NANOSECONDS);
+    }
+
+    private void updateLabelsMaster(List<NearbyFoodPOI> nearbyFoodPOIs) {
         labelsMaster.forEach(mapViewMaster::removeLabel);
         labelsMaster.clear();
-        searchHits.forEach(searchHit -> {
-            FoodPOI foodPOI = searchHit.getContent();
-            MapLabel mapLabel = new MapLabel(String.format("%1$3.1f km - %2$s", searchHit.getSortValues().get(0), foodPOI.getName()));
+        nearbyFoodPOIs.forEach(nearbyFoodPOI -> {
+            FoodPOI foodPOI = nearbyFoodPOI.getFoodPOI();
+            MapLabel mapLabel = new MapLabel(String.format("%1$3.1f km - %2$s", nearbyFoodPOI.getDistance(), foodPOI.getName()));
             mapLabel.setPosition(new Coordinate(foodPOI.getLocation().getLat(), foodPOI.getLocation().getLon()));
-//            mapLabel.setCssClass(foodPOI.getCategory());
+            mapLabel.setCssClass(categoryCssClass(foodPOI.getCategory()));
             mapLabel.setVisible(true);
             mapViewMaster.addLabel(mapLabel);
             labelsMaster.add(mapLabel);
         });
     }
+
+    private static class ViewportRequest {
+        private final Extent extent;
+        private final int zoom;
+        private final CategoryFilter categoryFilter;
+        private final long started = System.nanoTime();
+
+        ViewportRequest(Extent extent, int zoom, CategoryFilter categoryFilter) {
+            this.extent = extent;
+            this.zoom = zoom;
+            this.categoryFilter = categoryFilter;
+        }
+    }
+
+    private static class SuggestRequest {
+        private final String prefix;
+        private final GeoPoint location;
+
+        SuggestRequest(String prefix, Coordinate center) {
+            this.prefix = prefix;
+            this.location = new GeoPoint(center.getLatitude(), center.getLongitude());
+        }
+    }
+
+    /**
+     * the selected categories with the tile caches for the data loaded with them. A new filter is created when the
+     * selection changes, so queries that are still running for the old selection cannot put their data into the
+     * caches of the new one.
+     */
+    private static class CategoryFilter {
+        private final Set<Integer> categories;
+        private final ViewportTileCache<FoodPOISearchResult<FoodPOICluster>> clusterCache;
+        private final ViewportTileCache<FoodPOISearchResult<FoodPOILocation>> poiCache;
+
+        CategoryFilter(Set<Integer> categories, FoodPOIConfiguration.Viewport viewport) {
+            this.categories = Collections.unmodifiableSet(categories);
+            this.clusterCache = new ViewportTileCache<>(viewport.getCacheTiles(), viewport.getCacheMaxAge());
+            this.poiCache = new ViewportTileCache<>(viewport.getCacheTiles(), viewport.getCacheMaxAge());
+        }
+    }
+
+    private static class ViewportResult {
+        private final List<FoodPOICluster> clusters = new ArrayList<>();
+        private final List<FoodPOILocation> foodPOIs = new ArrayList<>();
+        /** the number of POIs per category in the tiles covering the viewport */
+        private final Map<Integer, Long> categoryCounts = new TreeMap<>();
+        private final ViewportRequest request;
+        private String status = "";
+
+        ViewportResult(ViewportRequest request) {
+            this.request = request;
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps the labels shown in a map in a hash map by the id of the displayed object. An {@link #update(Collection)}
+ * keeps the labels of the objects that are still shown, adds labels for the new ones and removes the others, so it runs
+ * in linear time and does not touch the unchanged labels. Removed labels are kept in a pool and passed to the label
+ * factory for reuse.
+ *
+ * @param <T> the type of the displayed objects
+ * @param <L> the type of the labels
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class MapLabelDiff<T, L> {
+
+    private final Function<T, String> idFunction;
+    private final BiFunction<T, L, L> labelFactory;
+    private final Consumer<L> addLabel;
+    private final Consumer<L> removeLabel;
+    private final int maxPoolSize;
+
+    private final Deque<L> pool = new ArrayDeque<>();
+    private Map<String, L> labels = new HashMap<>();
+
+    private int added;
+    private int removed;
+
+    /**
+     * @param idFunction returns the id of an object
+     * @param labelFactory creates the label for an object; the second argument is a label from the pool or
+     *     {@literal null} and may be reconfigured and returned
+     * @param addLabel adds a label to the map
+     * @param removeLabel removes a label from the map
+     * @param maxPoolSize the maximum number of removed labels kept for reuse
+     */
+    public MapLabelDiff(Function<T, String> idFunction, BiFunction<T, L, L> labelFactory, Consumer<L> addLabel,
+                        Consumer<L> removeLabel, int maxPoolSize) {
+        this.idFunction = idFunction;
+        this.labelFactory = labelFactory;
+        this.addLabel = addLabel;
+        this.removeLabel = removeLabel;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * updates the shown labels so that they match the given objects. The old labels are removed before the new ones
+     * are created, so the new ones can reuse them.
+     */
+    public void update(Collection<T> objects) {
+        int capacity = Math.max(16, (int) (objects.size() / 0.75f) + 1);
+        Map<String, L> newLabels = new HashMap<>(capacity);
+        Map<String, T> newObjects = new LinkedHashMap<>();
+        for (T object : objects) {
+            String id = idFunction.apply(object);
+            L label = labels.remove(id);
+            if (label != null) {
+                newLabels.put(id, label);
+            } else if (!newLabels.containsKey(id)) {
+                newObjects.putIfAbsent(id, object);
+            }
+        }
+
+        removed = labels.size();
+        for (L label : labels.values()) {
+            removeLabel.accept(label);
+            if (pool.size() < maxPoolSize) {
+                pool.push(label);
+            }
+        }
+
+        added = newObjects.size();
+        newObjects.forEach((id, object) -> {
+            L label = labelFactory.apply(object, pool.poll());
+            addLabel.accept(label);
+            newLabels.put(id, label);
+        });
+        labels = newLabels;
+    }
+
+    @Nullable
+    public L get(String id) {
+        return labels.get(id);
+    }
+
+    public int size() {
+        return labels.size();
+    }
+
+    /** @return the number of labels added by the last update */
+    public int getAdded() {
+        return added;
+    }
+
+    /** @return the number of labels removed by the last update */
+    public int getRemoved() {
+        return removed;
+    }
+}
@@ -15,6 +15,7 @@
 */
 package com.sothawo.foodpoi;
 
+import com.sothawo.mapjfx.Coordinate;
 import com.sothawo.mapjfx.MapLabel;
 import org.springframework.util.Assert;
 
@@ -37,11 +38,21 @@ public class MapLabelSlave extends MapLabel implements Comparable<MapLabelSlave>
         this.id = id;
     }
 
+    /**
+     * assigns a label that was removed from the map to another object so it can be added again. This changes the hash
+     * code, so the label must not be in a hash based collection at that time.
+     */
+    MapLabelSlave reuse(String id, Coordinate position) {
+        Assert.notNull(id, "id must not be null");
+        this.id = id;
+        setPosition(position);
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
 
         MapLabelSlave that = (MapLabelSlave) o;
 
@@ -50,14 +61,12 @@ public class MapLabelSlave extends MapLabel implements Comparable<MapLabelSlave>
 
     @Override
     public int hashCode() {
-        int result = super.hashCode();
-        result = 31 * result + id.hashCode();
-        return result;
+        return id.hashCode();
     }
 
     @Override
     public int compareTo(MapLabelSlave o) {
         if (o == null) return -1;
-        return this.id.compareTo(o.getId());
+        return this.id.compareTo(o.id);
     }
 }
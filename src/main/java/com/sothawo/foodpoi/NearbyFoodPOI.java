@@ -0,0 +1,53 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+/**
+ * A POI found by a nearest search with its distance from the search location.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class NearbyFoodPOI {
+
+    private final FoodPOI foodPOI;
+    private final double distance;
+
+    /**
+     * @param foodPOI the POI
+     * @param distance the distance in km
+     */
+    public NearbyFoodPOI(FoodPOI foodPOI, double distance) {
+        this.foodPOI = foodPOI;
+        this.distance = distance;
+    }
+
+    public FoodPOI getFoodPOI() {
+        return foodPOI;
+    }
+
+    /** @return the distance in km */
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public String toString() {
+        return "NearbyFoodPOI{" +
+            "foodPOI=" + foodPOI +
+            ", distance=" + distance +
+            '}';
+    }
+}
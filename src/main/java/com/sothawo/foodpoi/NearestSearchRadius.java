@@ -0,0 +1,144 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.search.aggregations.bucket.geogrid.GeoTileUtils;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Chooses the radius of the {@code geo_distance} filter of a nearest search. Instead of sorting all POIs by distance,
+ * the search only sorts the POIs within the radius and repeats with a larger radius until enough POIs are found. The
+ * first radius is estimated from the density of the POIs that earlier searches found in the same area, so in most
+ * cases one request is enough, no matter how many POIs the index has.
+ * <p>
+ * The density is kept per geotile of zoom level {@value #DENSITY_ZOOM}, about 20 to 40 km wide in Europe, and per
+ * category filter. The least recently used areas are dropped when the maximum number is reached.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class NearestSearchRadius {
+
+    /** the zoom level of the geotiles for which the density is kept */
+    static final int DENSITY_ZOOM = 10;
+    /** the smallest radius in km, for POIs that are at the same location */
+    private static final double MIN_RADIUS = 0.05;
+
+    private final double startRadius;
+    private final double radiusGrowth;
+    private final double maxRadius;
+    private final double radiusMargin;
+    private final int maxCells;
+    /** POIs per square km by area and category filter */
+    private final LinkedHashMap<Cell, Double> densities = new LinkedHashMap<>(16, 0.75f, true);
+
+    public NearestSearchRadius(FoodPOIConfiguration configuration) {
+        FoodPOIConfiguration.Nearest nearest = configuration.getNearest();
+        this.startRadius = nearest.getStartRadius();
+        this.radiusGrowth = Math.max(1.1, nearest.getRadiusGrowth());
+        this.maxRadius = nearest.getMaxRadius();
+        this.radiusMargin = nearest.getRadiusMargin();
+        this.maxCells = nearest.getDensityCells();
+    }
+
+    /**
+     * @param location the point to search from
+     * @param categories the category filter of the search
+     * @param count the number of POIs to find
+     * @return the radius in km for the first request, {@link Double#POSITIVE_INFINITY} if the POIs in the area are so
+     * sparse that no radius up to the maximum is expected to contain them
+     */
+    public double start(GeoPoint location, Set<Integer> categories, int count) {
+        Double density;
+        synchronized (this) {
+            density = densities.get(new Cell(location, categories));
+        }
+        if (density == null) {
+            return Math.min(startRadius, maxRadius);
+        }
+        double radius = Math.max(MIN_RADIUS, Math.sqrt(count / (Math.PI * density)) * radiusMargin);
+        return radius <= maxRadius ? radius : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param radius the radius of the request that found too few POIs
+     * @return the radius for the next request, {@link Double#POSITIVE_INFINITY} when the maximum radius is exceeded
+     */
+    public double next(double radius) {
+        double next = radius * radiusGrowth;
+        return next <= maxRadius ? next : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * records the density of the area from the result of a search. The distance of the last of the requested POIs is
+     * the radius of a circle that contains exactly that number of POIs, whatever radius the search used.
+     *
+     * @param location the point the search started from
+     * @param categories the category filter of the search
+     * @param count the number of POIs found
+     * @param distance the distance of the farthest of the found POIs in km
+     */
+    public void found(GeoPoint location, Set<Integer> categories, int count, double distance) {
+        if (count == 0 || Double.isNaN(distance)) {
+            return;
+        }
+        double radius = Math.max(MIN_RADIUS, distance);
+        double density = count / (Math.PI * radius * radius);
+        Cell cell = new Cell(location, categories);
+        synchronized (this) {
+            densities.merge(cell, density, (previous, current) -> (previous + current) / 2);
+            if (densities.size() > maxCells) {
+                Iterator<Cell> iterator = densities.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return densities.size();
+    }
+
+    private static final class Cell {
+        private final long tile;
+        private final Set<Integer> categories;
+
+        Cell(GeoPoint location, Set<Integer> categories) {
+            this.tile = GeoTileUtils.longEncode(location.getLon(), location.getLat(), DENSITY_ZOOM);
+            this.categories = Set.copyOf(categories);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Cell cell = (Cell) o;
+
+            return tile == cell.tile && categories.equals(cell.categories);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(tile) + categories.hashCode();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import net.rgielen.fxweaver.core.FxWeaver;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 /**
@@ -27,6 +28,7 @@ import org.springframework.stereotype.Component;
  * @author P.J. Meisch (pj.meisch@sothawo.com)
  */
 @Component
+@Profile("!" + FoodPOIApplication.HEADLESS)
 public class PrimaryStageInitializer implements ApplicationListener<StageReadyEvent> {
 
     private final FxWeaver fxWeaver;
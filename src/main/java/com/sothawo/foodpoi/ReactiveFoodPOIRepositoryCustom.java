@@ -0,0 +1,45 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import reactor.core.publisher.Flux;
+
+import java.util.Set;
+
+/**
+ * Queries of the {@link ReactiveFoodPOIRepository} that cannot be derived from method names, they are built like the
+ * ones of the {@link FoodPOIRepositoryCustom}.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public interface ReactiveFoodPOIRepositoryCustom {
+
+    /**
+     * @see FoodPOIRepositoryCustom#searchNearest(GeoPoint, Set, int)
+     */
+    Flux<SearchHit<FoodPOI>> searchNearest(GeoPoint location, Set<Integer> categories, int count);
+
+    /**
+     * @param geoBox the box to search in
+     * @param categories if not empty, only POIs of these categories are returned
+     * @param maxResults the maximum number of POIs to return
+     * @return POIs within the box
+     */
+    Flux<SearchHit<FoodPOI>> searchWithin(GeoBox geoBox, Set<Integer> categories, int maxResults);
+}
@@ -0,0 +1,75 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.ReactiveElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import reactor.core.publisher.Flux;
+
+import java.util.Set;
+
+/**
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class ReactiveFoodPOIRepositoryCustomImpl implements ReactiveFoodPOIRepositoryCustom {
+
+    private final ReactiveElasticsearchOperations operations;
+    private final NearestSearchRadius nearestSearchRadius;
+
+    public ReactiveFoodPOIRepositoryCustomImpl(ReactiveElasticsearchOperations operations,
+                                               NearestSearchRadius nearestSearchRadius) {
+        this.operations = operations;
+        this.nearestSearchRadius = nearestSearchRadius;
+    }
+
+    @Override
+    public Flux<SearchHit<FoodPOI>> searchNearest(GeoPoint location, Set<Integer> categories, int count) {
+        return Flux.defer(() ->
+            searchNearest(location, categories, count, nearestSearchRadius.start(location, categories, count)));
+    }
+
+    /**
+     * sends the nearest query with the radius and repeats it with the next radius when too few POIs are found. The
+     * hits of a request are collected, as only the number of hits tells whether the radius is big enough.
+     */
+    private Flux<SearchHit<FoodPOI>> searchNearest(GeoPoint location, Set<Integer> categories, int count,
+                                                   double radius) {
+        return operations.search(FoodPOIRepositoryCustomImpl.nearestQuery(location, categories, count, radius),
+            FoodPOI.class)
+            .collectList()
+            .flatMapMany(hits -> {
+                if (hits.size() >= count || Double.isInfinite(radius)) {
+                    nearestSearchRadius.found(location, categories, hits.size(), hits.isEmpty() ? Double.NaN
+                        : FoodPOIRepositoryCustomImpl.distance(hits.get(hits.size() - 1)));
+                    return Flux.fromIterable(hits);
+                }
+                return searchNearest(location, categories, count, nearestSearchRadius.next(radius));
+            });
+    }
+
+    @Override
+    public Flux<SearchHit<FoodPOI>> searchWithin(GeoBox geoBox, Set<Integer> categories, int maxResults) {
+        return operations.search(new NativeSearchQueryBuilder()
+            .withQuery(FoodPOIRepositoryCustomImpl.withinFilter(geoBox, categories))
+            .withPageable(PageRequest.of(0, maxResults))
+            .withSourceFilter(FoodPOIRepositoryCustomImpl.ENTITY_SOURCE)
+            .build(), FoodPOI.class);
+    }
+}
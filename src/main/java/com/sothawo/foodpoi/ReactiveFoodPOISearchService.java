@@ -0,0 +1,75 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Set;
+
+/**
+ * Non-blocking variant of the {@link ElasticsearchFoodPOISearchService} queries using the {@link
+ * ReactiveFoodPOIRepository}. The results are emitted on the event loop threads of the reactive client, so the
+ * subscribers must not block. The first query creates the index if it does not exist yet, this check is sent with
+ * the blocking client on a bounded elastic thread.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+@ConditionalOnProperty(prefix = "com.sothawo.foodpoi", name = "search-backend", havingValue = "elasticsearch",
+    matchIfMissing = true)
+public class ReactiveFoodPOISearchService {
+
+    private final ReactiveFoodPOIRepository repository;
+    private final ObjectProvider<FoodPOIIndexManager> indexManager;
+
+    public ReactiveFoodPOISearchService(ReactiveFoodPOIRepository repository,
+                                        ObjectProvider<FoodPOIIndexManager> indexManager) {
+        this.repository = repository;
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * @see FoodPOISearchService#searchNearest(GeoPoint, int, Set)
+     */
+    public Flux<NearbyFoodPOI> searchNearest(GeoPoint location, int count, Set<Integer> categories) {
+        return withIndex(repository.searchNearest(location, categories, count))
+            .map(searchHit -> new NearbyFoodPOI(searchHit.getContent(),
+                ((Number) searchHit.getSortValues().get(0)).doubleValue()));
+    }
+
+    /**
+     * @see FoodPOISearchService#streamWithin(GeoBox, Set, int)
+     */
+    public Flux<FoodPOI> searchWithin(GeoBox geoBox, Set<Integer> categories, int maxResults) {
+        return withIndex(repository.searchWithin(geoBox, categories, maxResults))
+            .map(SearchHit::getContent);
+    }
+
+    private <T> Flux<T> withIndex(Flux<T> query) {
+        FoodPOIIndexManager manager = indexManager.getObject();
+        return manager.isIndexChecked()
+            ? query
+            : Mono.fromRunnable(manager::ensureIndex).subscribeOn(Schedulers.boundedElastic()).thenMany(query);
+    }
+}
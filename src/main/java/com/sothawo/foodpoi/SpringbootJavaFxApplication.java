@@ -15,9 +15,13 @@
 */
 package com.sothawo.foodpoi;
 
+import io.reactivex.exceptions.UndeliverableException;
+import io.reactivex.plugins.RxJavaPlugins;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.ApplicationContextInitializer;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -29,11 +33,22 @@ import org.springframework.context.support.GenericApplicationContext;
  */
 public class SpringbootJavaFxApplication extends Application {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SpringbootJavaFxApplication.class);
+
     private ConfigurableApplicationContext context;
 
     @Override
     public void init() throws Exception {
 
+        // a query that was cancelled by a newer one may still fail, but there is no subscriber left for the error
+        RxJavaPlugins.setErrorHandler(e -> {
+            if (e instanceof UndeliverableException) {
+                LOG.debug("error after cancellation: {}", e.getCause().toString());
+            } else {
+                LOG.error("unhandled error", e);
+            }
+        });
+
         ApplicationContextInitializer<GenericApplicationContext> initializer =
             context -> {
                 context.registerBean(Application.class, () -> SpringbootJavaFxApplication.this);
@@ -0,0 +1,112 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the startup time and memory of the application when it is ready: the time from the start of the application
+ * context, the time from the start of the JVM and the resident memory of the process. The values are logged and
+ * published as {@code foodpoi.startup.context}, {@code foodpoi.startup.jvm} and {@code foodpoi.startup.resident},
+ * tagged with the mode (gui or headless).
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+@Component
+public class StartupReporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupReporter.class);
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    private long contextMillis;
+    private long jvmMillis;
+    private long residentBytes;
+
+    public StartupReporter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // before the other listeners, the index check may wait for the cluster
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void report(ApplicationReadyEvent event) {
+        contextMillis = System.currentTimeMillis() - event.getApplicationContext().getStartupDate();
+        jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        residentBytes = residentBytes();
+        String mode = environment.acceptsProfiles(Profiles.of(FoodPOIApplication.HEADLESS)) ? "headless" : "gui";
+
+        LOG.info("started {} in {} ms, {} ms since JVM start, {} MB resident memory", mode, contextMillis, jvmMillis,
+            residentBytes >= 0 ? residentBytes / (1024 * 1024) : "unknown");
+
+        TimeGauge.builder("foodpoi.startup.context", this, TimeUnit.MILLISECONDS, reporter -> reporter.contextMillis)
+            .description("time from the start of the application context until the application was ready")
+            .tag("mode", mode)
+            .register(meterRegistry);
+        TimeGauge.builder("foodpoi.startup.jvm", this, TimeUnit.MILLISECONDS, reporter -> reporter.jvmMillis)
+            .description("time from the start of the JVM until the application was ready")
+            .tag("mode", mode)
+            .register(meterRegistry);
+        Gauge.builder("foodpoi.startup.resident", this, reporter -> reporter.residentBytes)
+            .description("resident memory of the process when the application was ready")
+            .baseUnit("bytes")
+            .tag("mode", mode)
+            .register(meterRegistry);
+    }
+
+    /**
+     * @return the resident set size of the process read from {@code /proc/self/status}, on other systems the
+     * committed heap and non heap memory of the JVM
+     */
+    static long residentBytes() {
+        if (Files.isReadable(PROC_STATUS)) {
+            try {
+                for (String line : Files.readAllLines(PROC_STATUS)) {
+                    if (line.startsWith("VmRSS:")) {
+                        // VmRSS:     123456 kB
+                        return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOG.debug("could not read the resident memory: {}", e.toString());
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted()
+            + ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getCommitted();
+    }
+}
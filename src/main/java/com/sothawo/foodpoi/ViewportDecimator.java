@@ -0,0 +1,114 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the POIs shown in the viewport map to the ones that can be told apart on the screen. The map is split into
+ * square cells of a fixed size in pixels at the current zoom level, and of the POIs in a cell only the ones with the
+ * highest category priority are kept, up to a maximum number per cell. So the number of labels depends on the size of
+ * the screen and not on the density of the POIs.
+ * <p>
+ * The cells are aligned to the pixels of the whole map and not to the viewport, and POIs with the same priority are
+ * ranked by a hash of their id, so a POI that is shown stays shown when the map is panned or reloaded.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class ViewportDecimator {
+
+    private static final int TILE_SIZE = 256;
+
+    private final int cellSize;
+    private final int maxPerCell;
+    private final Map<Integer, Integer> categoryPriorities;
+    private final Comparator<FoodPOILocation> ranking;
+
+    /**
+     * @param cellSize the size of a cell in pixels
+     * @param maxPerCell the maximum number of POIs kept in a cell
+     * @param categoryPriorities the priority of the categories, POIs of categories with higher priority are kept first,
+     *     categories that are not contained have priority 0
+     */
+    public ViewportDecimator(int cellSize, int maxPerCell, Map<Integer, Integer> categoryPriorities) {
+        this.cellSize = cellSize;
+        this.maxPerCell = maxPerCell;
+        this.categoryPriorities = categoryPriorities;
+        this.ranking = Comparator
+            .comparingInt((FoodPOILocation location) -> -priority(location))
+            .thenComparingInt(location -> stableHash(location.getId()))
+            .thenComparing(FoodPOILocation::getId);
+    }
+
+    /**
+     * @param locations the POIs within the viewport
+     * @param zoom the zoom level of the map
+     * @return the POIs to show
+     */
+    public List<FoodPOILocation> decimate(Collection<FoodPOILocation> locations, int zoom) {
+        if (maxPerCell <= 0 || cellSize <= 0) {
+            return new ArrayList<>(locations);
+        }
+        double pixels = (double) TILE_SIZE * (1L << Math.max(0, zoom));
+        Map<Long, FoodPOILocation[]> cells = new LinkedHashMap<>();
+        for (FoodPOILocation location : locations) {
+            long cellX = (long) Math.floor(ViewportPrefetcher.worldX(location.getLon()) * pixels / cellSize);
+            long cellY = (long) Math.floor(ViewportPrefetcher.worldY(location.getLat()) * pixels / cellSize);
+            FoodPOILocation[] kept = cells.computeIfAbsent((cellX << 32) | cellY,
+                key -> new FoodPOILocation[maxPerCell]);
+            // insertion into the ranked array of the cell, maxPerCell is small
+            int position = maxPerCell;
+            while (position > 0 && (kept[position - 1] == null || ranking.compare(location, kept[position - 1]) < 0)) {
+                position--;
+            }
+            if (position < maxPerCell) {
+                System.arraycopy(kept, position, kept, position + 1, maxPerCell - position - 1);
+                kept[position] = location;
+            }
+        }
+        List<FoodPOILocation> result = new ArrayList<>();
+        for (FoodPOILocation[] kept : cells.values()) {
+            for (FoodPOILocation location : kept) {
+                if (location != null) {
+                    result.add(location);
+                }
+            }
+        }
+        return result;
+    }
+
+    private int priority(FoodPOILocation location) {
+        return categoryPriorities.getOrDefault(location.getCategory(), 0);
+    }
+
+    /**
+     * @return a hash of the id that does not change between runs and spreads similar ids, the finalizer of MurmurHash3
+     */
+    static int stableHash(String id) {
+        int hash = id.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Plans the tiles of the viewport cache that are loaded in the background while the viewport map is idle, so that the
+ * next pan or zoom can be shown from the cache. The pan velocity is tracked from the movements of the map. The tiles
+ * of the area the map would reach with this velocity within the lookahead time are loaded first, then the other
+ * neighbours of the viewport, the ones in the direction of the last pan first, and then the tiles for one zoom level
+ * in and one out.
+ * <p>
+ * Positions are web mercator world coordinates from 0 to 1 like the map tiles, so a velocity means the same on the
+ * screen at all latitudes. Instances are not thread safe.
+ *
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class ViewportPrefetcher {
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+    private static final int MAX_ZOOM = 20;
+    /** weight of a new measurement in the smoothed velocity */
+    private static final double SMOOTHING = 0.5;
+    /** movements further apart belong to different pans, the velocity of the last pan is kept */
+    private static final long MAX_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int tileZoomOffset;
+    private final double lookaheadSeconds;
+
+    private boolean hasPosition;
+    private double lastX;
+    private double lastY;
+    private int lastZoom;
+    private long lastNanos;
+    /** smoothed velocity in world coordinates per second */
+    private double velocityX;
+    private double velocityY;
+
+    /**
+     * @param tileZoomOffset the difference between the zoom level of the map and the one of the cached tiles
+     * @param lookahead the time for which the current pan velocity is extrapolated
+     */
+    public ViewportPrefetcher(int tileZoomOffset, Duration lookahead) {
+        this.tileZoomOffset = tileZoomOffset;
+        this.lookaheadSeconds = lookahead.toNanos() / 1e9;
+    }
+
+    /**
+     * records a movement of the map center. A change of the zoom level resets the velocity.
+     *
+     * @param nanoTime the time of the movement from {@link System#nanoTime()}
+     */
+    public void moved(double lat, double lon, int zoom, long nanoTime) {
+        double x = worldX(lon);
+        double y = worldY(lat);
+        if (hasPosition && zoom == lastZoom) {
+            // movements of less than a pixel are the same position reported again
+            double pixel = 1.0 / (256L << Math.max(0, zoom));
+            if (Math.abs(x - lastX) < pixel && Math.abs(y - lastY) < pixel) {
+                return;
+            }
+            long elapsed = nanoTime - lastNanos;
+            if (elapsed > 0 && elapsed <= MAX_SAMPLE_INTERVAL_NANOS) {
+                double seconds = elapsed / 1e9;
+                velocityX = SMOOTHING * (x - lastX) / seconds + (1 - SMOOTHING) * velocityX;
+                velocityY = SMOOTHING * (y - lastY) / seconds + (1 - SMOOTHING) * velocityY;
+            }
+        } else {
+            velocityX = 0;
+            velocityY = 0;
+        }
+        hasPosition = true;
+        lastX = x;
+        lastY = y;
+        lastZoom = zoom;
+        lastNanos = nanoTime;
+    }
+
+    /**
+     * @param viewport the area shown by the map
+     * @param zoom the zoom level of the map
+     * @param cached whether the data of a target is already in the cache, these targets are skipped
+     * @param maxTargets the maximum number of targets to return
+     * @return the tiles to load, the ones that are most likely needed next first
+     */
+    public List<Target> plan(GeoBox viewport, int zoom, Predicate<Target> cached, int maxTargets) {
+        double minX = worldX(viewport.getTopLeft().getLon());
+        double maxX = worldX(viewport.getBottomRight().getLon());
+        double minY = worldY(viewport.getTopLeft().getLat());
+        double maxY = worldY(viewport.getBottomRight().getLat());
+        double centerX = (minX + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
+        double width = maxX - minX;
+        double height = maxY - minY;
+        int tileZoom = tileZoom(zoom);
+
+        Set<Target> visible = new LinkedHashSet<>(targets(zoom, tileZoom, minX, minY, maxX, maxY));
+        Set<Target> planned = new LinkedHashSet<>();
+
+        // the area reached with the pan velocity, at most one viewport further
+        double dx = Math.max(-width, Math.min(width, velocityX * lookaheadSeconds));
+        double dy = Math.max(-height, Math.min(height, velocityY * lookaheadSeconds));
+        if (dx != 0 || dy != 0) {
+            List<Target> ahead = targets(zoom, tileZoom, minX + dx, minY + dy, maxX + dx, maxY + dy);
+            ahead.sort(Comparator.comparingDouble(target -> distance(target, centerX + dx, centerY + dy)));
+            planned.addAll(ahead);
+        }
+
+        // the ring of tiles around the visible ones, in the direction of the velocity first
+        double speed = Math.hypot(velocityX, velocityY);
+        List<Target> ring = targets(zoom, tileZoom, minX, minY, maxX, maxY, 1);
+        ring.sort(Comparator.comparingDouble(target -> {
+            double distance = distance(target, centerX, centerY);
+            if (speed == 0 || distance == 0) {
+                return distance;
+            }
+            double tileX = (target.tile.getX() + 0.5) / (1 << tileZoom);
+            double tileY = (target.tile.getY() + 0.5) / (1 << tileZoom);
+            // the cosine of the angle between the velocity and the direction to the tile, from 1 down to -1
+            double cosine = ((tileX - centerX) * velocityX + (tileY - centerY) * velocityY) / (distance * speed);
+            return distance * (2 - cosine);
+        }));
+        planned.addAll(ring);
+
+        // zooming in shows the middle of the viewport, zooming out twice its size
+        if (zoom < MAX_ZOOM) {
+            planned.addAll(targets(zoom + 1, tileZoom(zoom + 1),
+                centerX - width / 4, centerY - height / 4, centerX + width / 4, centerY + height / 4));
+        }
+        if (zoom > 0) {
+            planned.addAll(targets(zoom - 1, tileZoom(zoom - 1),
+                centerX - width, centerY - height, centerX + width, centerY + height));
+        }
+
+        List<Target> result = new ArrayList<>();
+        for (Target target : planned) {
+            if (result.size() >= maxTargets) {
+                break;
+            }
+            if (!visible.contains(target) && !cached.test(target)) {
+                result.add(target);
+            }
+        }
+        return result;
+    }
+
+    private int tileZoom(int zoom) {
+        return Math.max(0, zoom - tileZoomOffset);
+    }
+
+    private static List<Target> targets(int zoom, int tileZoom, double minX, double minY, double maxX, double maxY) {
+        return targets(zoom, tileZoom, minX, minY, maxX, maxY, 0);
+    }
+
+    /**
+     * @param border if greater than 0, only the tiles of a border of this width around the area are returned
+     */
+    private static List<Target> targets(int zoom, int tileZoom, double minX, double minY, double maxX, double maxY,
+                                        int border) {
+        int tiles = 1 << tileZoom;
+        int minTileX = tile(minX, tiles);
+        int maxTileX = tile(maxX, tiles);
+        int minTileY = tile(minY, tiles);
+        int maxTileY = tile(maxY, tiles);
+        List<Target> targets = new ArrayList<>();
+        for (int y = minTileY - border; y <= maxTileY + border; y++) {
+            for (int x = minTileX - border; x <= maxTileX + border; x++) {
+                boolean inside = x >= minTileX && x <= maxTileX && y >= minTileY && y <= maxTileY;
+                if (x >= 0 && x < tiles && y >= 0 && y < tiles && (border == 0 || !inside)) {
+                    targets.add(new Target(zoom, new ViewportTileCache.Tile(tileZoom, x, y)));
+                }
+            }
+        }
+        return targets;
+    }
+
+    private static int tile(double world, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor(world * tiles)));
+    }
+
+    private static double distance(Target target, double x, double y) {
+        int tiles = 1 << target.tile.getZoom();
+        return Math.hypot((target.tile.getX() + 0.5) / tiles - x, (target.tile.getY() + 0.5) / tiles - y);
+    }
+
+    static double worldX(double lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+    static double worldY(double lat) {
+        double latRad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        return (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0;
+    }
+
+    double getVelocityX() {
+        return velocityX;
+    }
+
+    double getVelocityY() {
+        return velocityY;
+    }
+
+    /**
+     * A tile to load for a zoom level of the map. The zoom level decides whether clusters or POIs are loaded.
+     */
+    public static class Target {
+        private final int zoom;
+        private final ViewportTileCache.Tile tile;
+
+        public Target(int zoom, ViewportTileCache.Tile tile) {
+            this.zoom = zoom;
+            this.tile = tile;
+        }
+
+        public int getZoom() {
+            return zoom;
+        }
+
+        public ViewportTileCache.Tile getTile() {
+            return tile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Target target = (Target) o;
+
+            return zoom == target.zoom && tile.equals(target.tile);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * zoom + tile.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return zoom + ":" + tile;
+        }
+    }
+}
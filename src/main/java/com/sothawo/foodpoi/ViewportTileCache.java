@@ -0,0 +1,289 @@
+/*
+ Copyright 2020 Peter-Josef Meisch (pj.meisch@sothawo.com)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.sothawo.foodpoi;
+
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the data of the viewport map per map tile. A viewport is covered by the tiles returned from {@link
+ * Tile#covering(GeoBox, int)}, only the tiles that are not in the cache are loaded, so panning back to an area that
+ * was shown before needs no query. The least recently used tiles are evicted when the cache is full, and tiles older
+ * than the maximum age are loaded again.
+ *
+ * @param <T> the type of the data of a tile
+ * @author P.J. Meisch (pj.meisch@sothawo.com)
+ */
+public class ViewportTileCache<T> {
+
+    private final int maxTiles;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoTime;
+    private final LinkedHashMap<Tile, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long prefetched;
+
+    public ViewportTileCache(int maxTiles, Duration maxAge) {
+        this(maxTiles, maxAge, System::nanoTime);
+    }
+
+    ViewportTileCache(int maxTiles, Duration maxAge, LongSupplier nanoTime) {
+        this.maxTiles = maxTiles;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * returns the data of the tiles, the tiles that are not cached are loaded with the loader. The loader is called
+     * without holding the lock of the cache, so concurrent calls may load the same tile.
+     *
+     * @param tiles the tiles to get
+     * @param loader called with the missing tiles, returns their data
+     * @return the data of the tiles in the order of the tiles
+     */
+    public Map<Tile, T> get(Collection<Tile> tiles, Function<List<Tile>, Map<Tile, T>> loader) {
+        Map<Tile, T> result = new LinkedHashMap<>();
+        List<Tile> missing = new ArrayList<>();
+        synchronized (this) {
+            long now = nanoTime.getAsLong();
+            for (Tile tile : tiles) {
+                Entry<T> entry = entries.get(tile);
+                if (entry != null && now - entry.loaded <= maxAgeNanos) {
+                    result.put(tile, entry.value);
+                    hits++;
+                } else {
+                    result.put(tile, null);
+                    missing.add(tile);
+                    misses++;
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<Tile, T> loaded = loader.apply(missing);
+            synchronized (this) {
+                long now = nanoTime.getAsLong();
+                loaded.forEach((tile, value) -> entries.put(tile, new Entry<>(value, now)));
+                evict();
+            }
+            result.putAll(loaded);
+        }
+        result.values().removeIf(Objects::isNull);
+        return result;
+    }
+
+    /**
+     * loads the tiles that are not cached or expired into the cache without returning any data. Unlike {@link
+     * #get(Collection, Function)} this does not count hits and misses, the loaded tiles are counted as prefetched.
+     *
+     * @param tiles the tiles to load
+     * @param loader called with the missing tiles, returns their data
+     */
+    public void prefetch(Collection<Tile> tiles, Function<List<Tile>, Map<Tile, T>> loader) {
+        List<Tile> missing = new ArrayList<>();
+        synchronized (this) {
+            for (Tile tile : tiles) {
+                if (!isCached(tile)) {
+                    missing.add(tile);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Tile, T> loaded = loader.apply(missing);
+            synchronized (this) {
+                long now = nanoTime.getAsLong();
+                loaded.forEach((tile, value) -> entries.put(tile, new Entry<>(value, now)));
+                prefetched += loaded.size();
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return whether the tile is in the cache and not expired, this counts as use of the tile for the eviction
+     */
+    public synchronized boolean isCached(Tile tile) {
+        Entry<T> entry = entries.get(tile);
+        return entry != null && nanoTime.getAsLong() - entry.loaded <= maxAgeNanos;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getPrefetched() {
+        return prefetched;
+    }
+
+    private void evict() {
+        Iterator<Entry<T>> iterator = entries.values().iterator();
+        while (entries.size() > maxTiles && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long loaded;
+
+        Entry(T value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+
+    /**
+     * A tile of the web mercator tiling used by the map and by the Elasticsearch geotile grid.
+     */
+    public static class Tile {
+        private static final double MAX_LATITUDE = 85.0511287798066;
+
+        private final int zoom;
+        private final int x;
+        private final int y;
+
+        public Tile(int zoom, int x, int y) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * @return the tiles of the given zoom level that intersect the box. A box that crosses the antimeridian, with
+         * the left longitude greater than the right one, is covered by the tiles from its left edge to the last column
+         * and from the first column to its right edge.
+         */
+        public static List<Tile> covering(GeoBox geoBox, int zoom) {
+            int columns = 1 << zoom;
+            int minX = x(geoBox.getTopLeft().getLon(), zoom);
+            int maxX = x(geoBox.getBottomRight().getLon(), zoom);
+            int minY = y(geoBox.getTopLeft().getLat(), zoom);
+            int maxY = y(geoBox.getBottomRight().getLat(), zoom);
+            int width = geoBox.getTopLeft().getLon() > geoBox.getBottomRight().getLon()
+                ? Math.min(columns, columns - minX + maxX + 1)
+                : maxX - minX + 1;
+            List<Tile> tiles = new ArrayList<>(width * (maxY - minY + 1));
+            for (int y = minY; y <= maxY; y++) {
+                for (int i = 0; i < width; i++) {
+                    tiles.add(new Tile(zoom, (minX + i) % columns, y));
+                }
+            }
+            return tiles;
+        }
+
+        /**
+         * @return the tile of the given zoom level containing the point
+         */
+        public static Tile of(double lat, double lon, int zoom) {
+            return new Tile(zoom, x(lon, zoom), y(lat, zoom));
+        }
+
+        static int x(double lon, int zoom) {
+            int tiles = 1 << zoom;
+            int x = (int) Math.floor((lon + 180.0) / 360.0 * tiles);
+            return Math.max(0, Math.min(tiles - 1, x));
+        }
+
+        static int y(double lat, int zoom) {
+            int tiles = 1 << zoom;
+            double latRad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+            int y = (int) Math.floor((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * tiles);
+            return Math.max(0, Math.min(tiles - 1, y));
+        }
+
+        private static double lon(int x, int zoom) {
+            return x / (double) (1 << zoom) * 360.0 - 180.0;
+        }
+
+        private static double lat(int y, int zoom) {
+            return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * y / (1 << zoom)))));
+        }
+
+        public int getZoom() {
+            return zoom;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * @return the area of the tile
+         */
+        public GeoBox getGeoBox() {
+            return new GeoBox(new GeoPoint(lat(y, zoom), lon(x, zoom)), new GeoPoint(lat(y + 1, zoom), lon(x + 1, zoom)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Tile tile = (Tile) o;
+
+            return zoom == tile.zoom && x == tile.x && y == tile.y;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = zoom;
+            result = 31 * result + x;
+            result = 31 * result + y;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return zoom + "/" + x + '/' + y;
+        }
+    }
+}
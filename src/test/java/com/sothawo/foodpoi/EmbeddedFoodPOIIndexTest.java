@@ -0,0 +1,145 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class EmbeddedFoodPOIIndexTest {
+
+    private final List<FoodPOI> foodPOIs = new ArrayList<>();
+    private EmbeddedFoodPOIIndex index;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(42);
+        EmbeddedFoodPOIIndex.Builder builder = EmbeddedFoodPOIIndex.builder();
+        for (int i = 0; i < 20_000; i++) {
+            double lat = 47.0 + random.nextDouble() * 8.0;
+            double lon = 5.0 + random.nextDouble() * 10.0;
+            String name = "name " + random.nextInt(100);
+            builder.accept(i % 3, Integer.toString(i), lat, lon, name);
+            foodPOIs.add(new FoodPOI(Integer.toString(i), i % 3, name, new GeoPoint(lat, lon)));
+        }
+        builder.accept(1000, "rejected", 49.0, 8.4, "invalid category");
+        index = builder.build(0.05);
+        assertThat(builder.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStoreNamesOnce() {
+        assertThat(index.size()).isEqualTo(20_000);
+        assertThat(index.names()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldFindTheNearestPOIs() {
+        for (GeoPoint location : List.of(new GeoPoint(49.013517, 8.404435), new GeoPoint(47.0, 5.0),
+            new GeoPoint(60.0, 20.0))) {
+
+            List<String> expected = foodPOIs.stream()
+                .sorted(Comparator.comparingDouble(foodPOI -> distance(location, foodPOI)))
+                .limit(5)
+                .map(FoodPOI::getId)
+                .collect(Collectors.toList());
+
+            List<NearbyFoodPOI> nearest = index.searchNearest(location, 5, Set.of());
+
+            assertThat(nearest).extracting(nearbyFoodPOI -> nearbyFoodPOI.getFoodPOI().getId())
+                .containsExactlyElementsOf(expected);
+            assertThat(nearest.get(0).getDistance())
+                .isCloseTo(distance(location, nearest.get(0).getFoodPOI()), within(1e-9));
+        }
+    }
+
+    @Test
+    void shouldSuggestThePOIsNearestToALocation() {
+        GeoPoint location = new GeoPoint(49.013517, 8.404435);
+        for (String prefix : List.of("Name 4", "4", "name 99", "nam")) {
+            String lowerCasePrefix = prefix.toLowerCase();
+            List<String> expected = foodPOIs.stream()
+                .filter(foodPOI -> FoodPOI.suggestInputs(foodPOI.getName()).stream()
+                    .anyMatch(input -> input.toLowerCase().startsWith(lowerCasePrefix)))
+                .sorted(Comparator.comparingDouble(foodPOI -> distance(location, foodPOI)))
+                .limit(10)
+                .map(FoodPOI::getId)
+                .collect(Collectors.toList());
+
+            assertThat(index.suggest(prefix, location, 10))
+                .extracting(nearbyFoodPOI -> nearbyFoodPOI.getFoodPOI().getId())
+                .containsExactlyElementsOf(expected);
+        }
+        assertThat(index.suggest("x", location, 10)).isEmpty();
+        assertThat(index.suggest("name 100", location, 10)).isEmpty();
+    }
+
+    @Test
+    void shouldFindThePOIsWithinABox() {
+        GeoBox geoBox = new GeoBox(new GeoPoint(49.5, 8.0), new GeoPoint(49.0, 9.0));
+        List<String> expected = foodPOIs.stream()
+            .filter(foodPOI -> foodPOI.getLocation().getLat() <= 49.5 && foodPOI.getLocation().getLat() >= 49.0
+                && foodPOI.getLocation().getLon() >= 8.0 && foodPOI.getLocation().getLon() <= 9.0)
+            .map(FoodPOI::getId)
+            .collect(Collectors.toList());
+
+        assertThat(index.searchWithin(geoBox, Set.of(), 100_000).getContent()).extracting(FoodPOI::getId)
+            .containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(index.searchWithin(geoBox, Set.of(), 10).getContent()).hasSize(10);
+        assertThat(index.searchLocationsWithin(geoBox, Set.of(), 100_000).getContent())
+            .extracting(FoodPOILocation::getId)
+            .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    void shouldFilterByCategoryAndCountAllCategories() {
+        GeoBox geoBox = new GeoBox(new GeoPoint(49.5, 8.0), new GeoPoint(49.0, 9.0));
+        Map<Integer, Long> expectedCounts = foodPOIs.stream()
+            .filter(foodPOI -> foodPOI.getLocation().getLat() <= 49.5 && foodPOI.getLocation().getLat() >= 49.0
+                && foodPOI.getLocation().getLon() >= 8.0 && foodPOI.getLocation().getLon() <= 9.0)
+            .collect(Collectors.groupingBy(FoodPOI::getCategory, Collectors.counting()));
+
+        FoodPOISearchResult<FoodPOI> result = index.searchWithin(geoBox, Set.of(1, 2), 100_000);
+
+        assertThat(result.getContent()).isNotEmpty().allMatch(foodPOI -> foodPOI.getCategory() != 0);
+        assertThat(result.getContent()).hasSize((int) (expectedCounts.get(1) + expectedCounts.get(2)));
+        assertThat(result.getCategoryCounts()).isEqualTo(expectedCounts);
+
+        FoodPOISearchResult<FoodPOICluster> clusters = index.searchClustersIn(geoBox, Set.of(0), 6, 1000);
+        assertThat(clusters.getContent().stream().mapToLong(FoodPOICluster::getCount).sum())
+            .isEqualTo(expectedCounts.get(0));
+        assertThat(clusters.getCategoryCounts()).isEqualTo(expectedCounts);
+
+        GeoPoint location = new GeoPoint(49.013517, 8.404435);
+        assertThat(index.searchNearest(location, 5, Set.of(2)))
+            .allMatch(nearbyFoodPOI -> nearbyFoodPOI.getFoodPOI().getCategory() == 2)
+            .hasSize(5);
+        assertThat(index.searchNearest(location, 5, Set.of(1000))).isEmpty();
+    }
+
+    @Test
+    void shouldClusterThePOIsWithinABox() {
+        GeoBox geoBox = new GeoBox(new GeoPoint(55.0, 5.0), new GeoPoint(47.0, 15.0));
+
+        List<FoodPOICluster> clusters = index.searchClustersIn(geoBox, Set.of(), 6, 1000).getContent();
+
+        assertThat(clusters.stream().mapToLong(FoodPOICluster::getCount).sum()).isEqualTo(20_000);
+        assertThat(clusters).allMatch(cluster -> cluster.getKey().startsWith("6/"));
+        assertThat(index.searchClustersIn(geoBox, Set.of(), 6, 3).getContent()).hasSize(3);
+    }
+
+    private static double distance(GeoPoint location, FoodPOI foodPOI) {
+        return EmbeddedFoodPOIIndex.distance(location.getLat(), location.getLon(), foodPOI.getLocation().getLat(),
+            foodPOI.getLocation().getLon());
+    }
+}
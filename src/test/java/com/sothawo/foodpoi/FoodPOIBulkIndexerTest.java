@@ -0,0 +1,174 @@
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIBulkIndexerTest {
+
+    @Test
+    void shouldCompressTheBulkBody() throws IOException {
+        BulkRequest bulkRequest = new BulkRequest()
+            .add(new IndexRequest("foodpois").id("1").source("{\"name\":\"Café\"}", XContentType.JSON))
+            .add(new DeleteRequest("foodpois", "2"));
+
+        Request request = FoodPOIBulkIndexer.compressedBulkRequest(bulkRequest);
+
+        assertThat(request.getEndpoint()).isEqualTo("/_bulk");
+        assertThat(request.getEntity().getContentEncoding().getValue()).isEqualTo("gzip");
+        String body;
+        try (InputStream inputStream = new GZIPInputStream(request.getEntity().getContent())) {
+            body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertThat(body).isEqualTo("{\"index\":{\"_index\":\"foodpois\",\"_id\":\"1\"}}\n" +
+            "{\"name\":\"Café\"}\n" +
+            "{\"delete\":{\"_index\":\"foodpois\",\"_id\":\"2\"}}\n");
+    }
+
+    @Test
+    void shouldRetryOnlyTheRejectedDocumentsWhenOtherDocumentsFailed() throws Exception {
+        BulkRequest bulkRequest = new BulkRequest()
+            .add(new IndexRequest("foodpois").id("1").source("{}", XContentType.JSON))
+            .add(new IndexRequest("foodpois").id("2").source("{}", XContentType.JSON))
+            .add(new IndexRequest("foodpois").id("3").source("{}", XContentType.JSON));
+        List<List<String>> sentIds = new ArrayList<>();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        FoodPOIBulkIndexer.RetryingBulk retryingBulk = new FoodPOIBulkIndexer.RetryingBulk((request, listener) -> {
+            List<String> ids = request.requests().stream().map(DocWriteRequest::id).collect(Collectors.toList());
+            sentIds.add(ids);
+            BulkItemResponse[] items = new BulkItemResponse[ids.size()];
+            for (int i = 0; i < items.length; i++) {
+                String id = ids.get(i);
+                if (id.equals("2") && sentIds.size() < 3) {
+                    items[i] = failed(i, id, new EsRejectedExecutionException("queue full"));
+                } else if (id.equals("3")) {
+                    items[i] = failed(i, id, new MapperParsingException("invalid document"));
+                } else {
+                    items[i] = new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                        new IndexResponse(new ShardId("foodpois", "uuid", 0), "_doc", id, 1, 1, 1, true));
+                }
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }, BackoffPolicy.constantBackoff(TimeValue.timeValueMillis(1), 3), scheduler);
+
+        CompletableFuture<BulkResponse> result = new CompletableFuture<>();
+        try {
+            retryingBulk.execute(bulkRequest, ActionListener.wrap(result::complete, result::completeExceptionally));
+            BulkResponse response = result.get(10, TimeUnit.SECONDS);
+
+            assertThat(sentIds).containsExactly(List.of("1", "2", "3"), List.of("2"), List.of("2"));
+            assertThat(response.getItems()).extracting(BulkItemResponse::getId).containsExactly("1", "2", "3");
+            assertThat(response.getItems()).extracting(BulkItemResponse::isFailed).containsExactly(false, false, true);
+            assertThat(response.getTook().millis()).isEqualTo(3);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldRetryABulkRequestThatWasRejectedAsAWhole() throws Exception {
+        BulkRequest bulkRequest = new BulkRequest()
+            .add(new IndexRequest("foodpois").id("1").source("{}", XContentType.JSON));
+        AtomicInteger attempts = new AtomicInteger();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        FoodPOIBulkIndexer.RetryingBulk retryingBulk = new FoodPOIBulkIndexer.RetryingBulk((request, listener) -> {
+            if (attempts.incrementAndGet() < 3) {
+                listener.onFailure(new EsRejectedExecutionException("queue full"));
+            } else {
+                listener.onResponse(new BulkResponse(new BulkItemResponse[]{new BulkItemResponse(0,
+                    DocWriteRequest.OpType.INDEX,
+                    new IndexResponse(new ShardId("foodpois", "uuid", 0), "_doc", "1", 1, 1, 1, true))}, 1));
+            }
+        }, BackoffPolicy.constantBackoff(TimeValue.timeValueMillis(1), 3), scheduler);
+
+        CompletableFuture<BulkResponse> result = new CompletableFuture<>();
+        try {
+            retryingBulk.execute(bulkRequest, ActionListener.wrap(result::complete, result::completeExceptionally));
+
+            assertThat(result.get(10, TimeUnit.SECONDS).hasFailures()).isFalse();
+            assertThat(attempts).hasValue(3);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotRetryABulkRequestThatFailedForADifferentReason() {
+        AtomicInteger attempts = new AtomicInteger();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        FoodPOIBulkIndexer.RetryingBulk retryingBulk = new FoodPOIBulkIndexer.RetryingBulk((request, listener) -> {
+            attempts.incrementAndGet();
+            listener.onFailure(new IOException("connection refused"));
+        }, BackoffPolicy.constantBackoff(TimeValue.timeValueMillis(1), 3), scheduler);
+
+        CompletableFuture<BulkResponse> result = new CompletableFuture<>();
+        retryingBulk.execute(new BulkRequest().add(new DeleteRequest("foodpois", "1")),
+            ActionListener.wrap(result::complete, result::completeExceptionally));
+        scheduler.shutdownNow();
+
+        assertThat(result).isCompletedExceptionally();
+        assertThat(attempts).hasValue(1);
+        assertThat(FoodPOIBulkIndexer.isRejection(new ElasticsearchStatusException("rejected",
+            RestStatus.TOO_MANY_REQUESTS))).isTrue();
+    }
+
+    @Test
+    void shouldFailTheScheduledRetriesWhenAborted() throws Exception {
+        BulkRequest bulkRequest = new BulkRequest()
+            .add(new IndexRequest("foodpois").id("1").source("{}", XContentType.JSON));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        FoodPOIBulkIndexer.RetryingBulk retryingBulk = new FoodPOIBulkIndexer.RetryingBulk((request, listener) ->
+            listener.onResponse(new BulkResponse(new BulkItemResponse[]{
+                failed(0, "1", new EsRejectedExecutionException("queue full"))}, 1)),
+            BackoffPolicy.constantBackoff(TimeValue.timeValueHours(1), 3), scheduler);
+
+        CompletableFuture<BulkResponse> result = new CompletableFuture<>();
+        try {
+            retryingBulk.execute(bulkRequest, ActionListener.wrap(result::complete, result::completeExceptionally));
+            assertThat(result).isNotDone();
+
+            retryingBulk.abort();
+
+            BulkItemResponse item = result.get(10, TimeUnit.SECONDS).getItems()[0];
+            assertThat(item.isFailed()).isTrue();
+            assertThat(item.getFailureMessage()).contains("closed");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static BulkItemResponse failed(int itemId, String id, Exception cause) {
+        return new BulkItemResponse(itemId, DocWriteRequest.OpType.INDEX,
+            new BulkItemResponse.Failure("foodpois", "_doc", id, cause));
+    }
+}
@@ -0,0 +1,46 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIConfigurationTest {
+
+    @Test
+    void shouldAddTheDeprecatedHostToTheHosts() {
+        FoodPOIConfiguration configuration = bind(Map.of(
+            "com.sothawo.foodpoi.elasticsearchHost", "es-0:9200",
+            "com.sothawo.foodpoi.elasticsearchHosts[0]", "es-1:9200",
+            "com.sothawo.foodpoi.elasticsearchHosts[1]", "es-2:9200"));
+
+        assertThat(configuration.getElasticSearchHosts()).containsExactly("es-0:9200", "es-1:9200", "es-2:9200");
+    }
+
+    @Test
+    void shouldUseTheDeprecatedHostAlone() {
+        FoodPOIConfiguration configuration = bind(Map.of("com.sothawo.foodpoi.elasticsearchHost", "es-0:9200"));
+
+        assertThat(configuration.getElasticSearchHosts()).containsExactly("es-0:9200");
+    }
+
+    @Test
+    void shouldNotAddTheDeprecatedHostTwice() {
+        FoodPOIConfiguration configuration = bind(Map.of(
+            "com.sothawo.foodpoi.elasticsearchHost", "es-1:9200",
+            "com.sothawo.foodpoi.elasticsearchHosts[0]", "es-1:9200"));
+
+        assertThat(configuration.getElasticSearchHosts()).containsExactly("es-1:9200");
+    }
+
+    private FoodPOIConfiguration bind(Map<String, String> properties) {
+        FoodPOIConfiguration configuration = new FoodPOIConfiguration();
+        new Binder(new MapConfigurationPropertySource(properties))
+            .bind("com.sothawo.foodpoi", Bindable.ofInstance(configuration));
+        return configuration;
+    }
+}
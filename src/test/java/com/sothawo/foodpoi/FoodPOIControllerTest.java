@@ -0,0 +1,40 @@
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void shouldWriteJsonArray() {
+        Flux<Map<String, Integer>> elements = Flux.just(Map.of("a", 1), Map.of("a", 2), Map.of("a", 3));
+
+        String json = String.join("", FoodPOIController.json(elements, false, objectMapper).collectList().block());
+
+        assertThat(json).isEqualTo("[{\"a\":1},{\"a\":2},{\"a\":3}]");
+    }
+
+    @Test
+    void shouldWriteEmptyJsonArray() {
+        List<String> chunks = FoodPOIController.json(Flux.empty(), false, objectMapper).collectList().block();
+
+        assertThat(String.join("", chunks)).isEqualTo("[]");
+    }
+
+    @Test
+    void shouldWriteJsonLines() {
+        Flux<Map<String, Integer>> elements = Flux.just(Map.of("a", 1), Map.of("a", 2));
+
+        String json = String.join("", FoodPOIController.json(elements, true, objectMapper).collectList().block());
+
+        assertThat(json).isEqualTo("{\"a\":1}\n{\"a\":2}\n");
+    }
+}
@@ -0,0 +1,75 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOICsvParserTest {
+
+    private static final String CONTENT = "category|id|lat|lon|name\n" +
+        "1|4711|49.013517|8.404435|Schlosscafé\n" +
+        "2|4712|-0.5|+12|Imbiss\r\n" +
+        "\n" +
+        "3|4713|1.0e1|2.25|Exponent\n" +
+        "x|4714|49.0|8.4|bad category\n" +
+        "4|4715|49.0|8.4\n" +
+        "5|4716|49.0|8.4|too|many\n" +
+        "6|4717|lat|8.4|bad latitude\n" +
+        "7|4718|0.12345678901234567890|8.4|long fraction";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldParseMappedFileLikeLines() throws IOException {
+        Path file = tempDir.resolve("pois.csv");
+        Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        FoodPOICsvParser mappedParser = new FoodPOICsvParser();
+        List<String> mapped = new ArrayList<>();
+        mappedParser.parse(file, (category, id, lat, lon, name) -> mapped.add(category + "|" + id + "|" + lat + "|" + lon + "|" + name));
+
+        FoodPOICsvParser linesParser = new FoodPOICsvParser();
+        List<String> lines = new ArrayList<>();
+        linesParser.parseLines(file, (category, id, lat, lon, name) -> lines.add(category + "|" + id + "|" + lat + "|" + lon + "|" + name));
+
+        assertThat(mapped).containsExactly(
+            "1|4711|49.013517|8.404435|Schlosscafé",
+            "2|4712|-0.5|12.0|Imbiss",
+            "3|4713|10.0|2.25|Exponent",
+            "7|4718|0.12345678901234568|8.4|long fraction");
+        assertThat(mapped).isEqualTo(lines);
+        assertThat(mappedParser.getLines()).isEqualTo(8);
+        assertThat(mappedParser.getMalformedLines()).isEqualTo(4);
+        assertThat(linesParser.getMalformedLines()).isEqualTo(mappedParser.getMalformedLines());
+    }
+
+    @Test
+    void shouldParseSplitRangesLikeWholeFile() throws IOException {
+        Path file = tempDir.resolve("pois.csv");
+        Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        List<String> whole = new ArrayList<>();
+        new FoodPOICsvParser().parse(file, (category, id, lat, lon, name) -> whole.add(id));
+
+        List<FoodPOICsvParser.Range> ranges = FoodPOICsvParser.split(file, 20);
+        FoodPOICsvParser parser = new FoodPOICsvParser();
+        List<String> split = new ArrayList<>();
+        for (FoodPOICsvParser.Range range : ranges) {
+            parser.parse(range, (category, id, lat, lon, name) -> split.add(id));
+        }
+
+        assertThat(ranges).hasSizeGreaterThan(1);
+        assertThat(ranges.get(ranges.size() - 1).getEnd()).isEqualTo(Files.size(file));
+        assertThat(split).isEqualTo(whole);
+        assertThat(parser.getMalformedLines()).isEqualTo(4);
+    }
+}
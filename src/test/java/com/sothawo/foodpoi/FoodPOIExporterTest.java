@@ -0,0 +1,41 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIExporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldWriteCsvThatCanBeParsedAgain() throws IOException {
+        StringWriter writer = new StringWriter();
+        writer.write("category|id|lat|lon|name\n");
+        FoodPOIExporter.writeCsv(writer, new FoodPOI("4711", 2, "Schlosscafé", new GeoPoint(49.013517, 8.404435)));
+        FoodPOIExporter.writeCsv(writer, new FoodPOI("4712", 1, "Bar | Bistro", new GeoPoint(-33.5, -70.25)));
+        assertThat(FoodPOIExporter.writeCsv(writer, new FoodPOI("4713", 1, "", new GeoPoint(1.0, 2.0)))).isFalse();
+        assertThat(FoodPOIExporter.writeCsv(writer, new FoodPOI("4714", 1, null, new GeoPoint(1.0, 2.0)))).isFalse();
+        Path file = tempDir.resolve("export.csv");
+        Files.write(file, writer.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> records = new ArrayList<>();
+        FoodPOICsvParser parser = new FoodPOICsvParser();
+        parser.parse(file, (category, id, lat, lon, name) ->
+            records.add(category + "," + id + ',' + lat + ',' + lon + ',' + name));
+
+        assertThat(parser.getMalformedLines()).isZero();
+        assertThat(records).containsExactly("2,4711,49.013517,8.404435,Schlosscafé", "1,4712,-33.5,-70.25,Bar   Bistro");
+    }
+}
@@ -0,0 +1,60 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIFingerprintsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldDetectNewChangedAndUnchangedPOIs() {
+        FoodPOIFingerprints fingerprints = new FoodPOIFingerprints();
+        int fingerprint = FoodPOIFingerprints.fingerprint(1, 49.0, 8.4, "Schlosscafé");
+
+        assertThat(fingerprints.update("4711", fingerprint)).isTrue();
+        assertThat(fingerprints.update("4711", fingerprint)).isFalse();
+        assertThat(fingerprints.update("4711", FoodPOIFingerprints.fingerprint(1, 49.0, 8.4, "Schlosscafe"))).isTrue();
+        assertThat(fingerprints.update("node/4711", fingerprint)).isTrue();
+        assertThat(fingerprints.update("node/4711", fingerprint)).isFalse();
+        assertThat(fingerprints.size()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReportPOIsNotSeenSinceLoad() throws IOException {
+        FoodPOIFingerprints fingerprints = new FoodPOIFingerprints();
+        for (int i = 0; i < 100_000; i++) {
+            fingerprints.update(Integer.toString(i), i);
+        }
+        fingerprints.update("x1", 1);
+        fingerprints.update("x2", 2);
+        Path file = tempDir.resolve("fingerprints.bin");
+        fingerprints.save(file);
+
+        FoodPOIFingerprints loaded = FoodPOIFingerprints.load(file);
+        assertThat(loaded.size()).isEqualTo(100_002);
+        for (int i = 0; i < 100_000; i += 2) {
+            assertThat(loaded.update(Integer.toString(i), i)).isFalse();
+        }
+        assertThat(loaded.update("x1", 1)).isFalse();
+
+        List<String> unseen = new ArrayList<>();
+        assertThat(loaded.forEachUnseen(unseen::add)).isEqualTo(50_001);
+        assertThat(unseen).contains("1", "99999", "x2").doesNotContain("0", "x1");
+        assertThat(loaded.size()).isEqualTo(100_002);
+        unseen.forEach(loaded::remove);
+        assertThat(loaded.size()).isEqualTo(50_001);
+        for (int i = 0; i < 100_000; i += 2) {
+            assertThat(loaded.update(Integer.toString(i), i)).isFalse();
+        }
+        assertThat(loaded.update("1", 1)).isTrue();
+    }
+}
@@ -0,0 +1,188 @@
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FoodPOILoaderTest {
+
+    private static final int POIS = 40;
+
+    @TempDir
+    Path tempDir;
+
+    private final Set<String> failingIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> indexedIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> deletedIds = ConcurrentHashMap.newKeySet();
+    private Path input;
+    private FoodPOILoader loader;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StringBuilder csv = new StringBuilder("category|id|lat|lon|name\n");
+        for (int i = 0; i < POIS; i++) {
+            csv.append("1|").append(i).append("|49.0|8.4|Name ").append(i).append('\n');
+        }
+        input = Files.write(tempDir.resolve("input.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        FoodPOIConfiguration configuration = new FoodPOIConfiguration();
+        FoodPOIConfiguration.Ingest ingest = configuration.getIngest();
+        ingest.setInputs(List.of(input));
+        ingest.setParallelism(2);
+        ingest.setRangeSize(DataSize.ofBytes(100));
+        ingest.setCheckpointDirectory(tempDir.resolve("checkpoints"));
+        ingest.setFingerprintFile(tempDir.resolve("fingerprints.bin"));
+
+        // the session acknowledges each document at once
+        FoodPOIBulkIndexer.Session session = mock(FoodPOIBulkIndexer.Session.class);
+        doAnswer(invocation -> {
+            FoodPOI foodPOI = invocation.getArgument(0);
+            FoodPOIBulkIndexer.Acknowledgement acknowledgement = invocation.getArgument(1);
+            boolean success = !failingIds.contains(foodPOI.getId());
+            if (success) {
+                indexedIds.add(foodPOI.getId());
+            }
+            acknowledgement.acknowledged(foodPOI.getId(), success);
+            return null;
+        }).when(session).index(any(FoodPOI.class), any());
+        doAnswer(invocation -> {
+            String id = invocation.getArgument(0);
+            FoodPOIBulkIndexer.Acknowledgement acknowledgement = invocation.getArgument(1);
+            boolean success = !failingIds.contains(id);
+            if (success) {
+                deletedIds.add(id);
+            }
+            acknowledgement.acknowledged(id, success);
+            return null;
+        }).when(session).delete(anyString(), any());
+        FoodPOIBulkIndexer indexer = mock(FoodPOIBulkIndexer.class);
+        when(indexer.open(anyString())).thenReturn(session);
+        FoodPOIIndexManager indexManager = mock(FoodPOIIndexManager.class);
+        when(indexManager.getAlias()).thenReturn("foodpois");
+
+        loader = new FoodPOILoader(indexer, indexManager, configuration, new ObjectMapper(),
+            new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        loader.shutdown();
+    }
+
+    @Test
+    void shouldAcknowledgeARangeWhenItIsParsedAndAllItsDocumentsAreIndexed() {
+        AtomicInteger completed = new AtomicInteger();
+        FoodPOILoader.RangeTracker tracker = new FoodPOILoader.RangeTracker(
+            new FoodPOICsvParser.Range(input, 0, 100), completed::incrementAndGet);
+
+        tracker.acquire();
+        tracker.acquire();
+        tracker.release();
+        tracker.release();
+        assertThat(completed).hasValue(0);
+        // the parsing of the range has finished
+        tracker.release();
+        assertThat(completed).hasValue(1);
+    }
+
+    @Test
+    void shouldNotAcknowledgeARangeWithAFailedDocument() {
+        AtomicInteger completed = new AtomicInteger();
+        FoodPOILoader.RangeTracker tracker = new FoodPOILoader.RangeTracker(
+            new FoodPOICsvParser.Range(input, 0, 100), completed::incrementAndGet);
+
+        tracker.acquire();
+        tracker.failed();
+        tracker.release();
+        tracker.release();
+        assertThat(completed).hasValue(0);
+    }
+
+    @Test
+    void shouldLoadOnlyTheFailedRangesWhenResuming() throws Exception {
+        failingIds.add("17");
+        IngestJob job = awaitJob(loader.start(null, IngestJob.Mode.FULL));
+
+        assertThat(job.getState()).isEqualTo(IngestJob.State.FAILED);
+        assertThat(job.getAcknowledgedRanges()).isEqualTo(job.getRanges() - 1);
+        assertThat(indexedIds).hasSize(POIS - 1);
+
+        failingIds.clear();
+        indexedIds.clear();
+        IngestJob resumed = awaitJob(loader.start(job.getId(), IngestJob.Mode.FULL));
+
+        assertThat(resumed.getState()).isEqualTo(IngestJob.State.COMPLETED);
+        assertThat(resumed.getAcknowledgedRanges()).isEqualTo(resumed.getRanges());
+        assertThat(indexedIds).contains("17").hasSizeLessThan(POIS / 2);
+        assertThatThrownBy(() -> loader.start(job.getId(), IngestJob.Mode.FULL))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("completed");
+    }
+
+    @Test
+    void shouldNotResumeAJobWhenTheInputHasChanged() throws Exception {
+        failingIds.add("17");
+        IngestJob job = awaitJob(loader.start(null, IngestJob.Mode.FULL));
+        assertThat(job.getState()).isEqualTo(IngestJob.State.FAILED);
+
+        Files.write(input, "1|40|49.0|8.4|Name 40\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertThatThrownBy(() -> loader.start(job.getId(), IngestJob.Mode.FULL))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("has changed");
+    }
+
+    @Test
+    void shouldDeleteTheRemovedPOIsAgainWhenADeletionFailed() throws Exception {
+        assertThat(awaitJob(loader.start(null, IngestJob.Mode.FULL)).getState()).isEqualTo(IngestJob.State.COMPLETED);
+        List<String> lines = Files.readAllLines(input);
+        // POIs 0 and 1 are removed from the input
+        Files.write(input, lines.subList(3, lines.size()).stream()
+            .collect(Collectors.joining("\n", lines.get(0) + "\n", "\n")).getBytes(StandardCharsets.UTF_8));
+
+        failingIds.add("1");
+        IngestJob job = awaitJob(loader.start(null, IngestJob.Mode.DELTA));
+
+        assertThat(job.getState()).isEqualTo(IngestJob.State.FAILED);
+        assertThat(job.getMessage()).contains("could not be deleted");
+        assertThat(deletedIds).containsExactly("0");
+
+        failingIds.clear();
+        deletedIds.clear();
+        IngestJob resumed = awaitJob(loader.start(job.getId(), IngestJob.Mode.DELTA));
+
+        assertThat(resumed.getState()).isEqualTo(IngestJob.State.COMPLETED);
+        assertThat(deletedIds).containsExactlyInAnyOrder("0", "1");
+        assertThat(FoodPOIFingerprints.load(tempDir.resolve("fingerprints.bin")).size()).isEqualTo(POIS - 2);
+    }
+
+    private static IngestJob awaitJob(IngestJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && job.getState() == IngestJob.State.RUNNING; i++) {
+            Thread.sleep(10);
+        }
+        return job;
+    }
+}
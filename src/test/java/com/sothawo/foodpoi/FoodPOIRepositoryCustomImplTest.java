@@ -0,0 +1,57 @@
+package com.sothawo.foodpoi;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOIRepositoryCustomImplTest {
+
+    @Test
+    void shouldReadTheLocationFromTheSource() throws IOException {
+        MappingElasticsearchConverter converter = new MappingElasticsearchConverter(
+            new SimpleElasticsearchMappingContext());
+        converter.afterPropertiesSet();
+        FoodPOI foodPOI = FoodPOI.forIndex("42", 3, "Café am Schloss", new GeoPoint(49.013517, 8.404435));
+
+        // the complete source with the suggest inputs, the fields that are not needed are skipped
+        FoodPOILocation location = FoodPOIRepositoryCustomImpl.location("42",
+            new BytesArray(converter.mapObject(foodPOI).toJson()));
+
+        assertThat(location.getId()).isEqualTo("42");
+        assertThat(location.getCategory()).isEqualTo(3);
+        assertThat(location.getLat()).isEqualTo(49.013517);
+        assertThat(location.getLon()).isEqualTo(8.404435);
+    }
+
+    @Test
+    void shouldReadTheFilteredSource() throws IOException {
+        FoodPOILocation location = FoodPOIRepositoryCustomImpl.location("7",
+            new BytesArray("{\"location\":{\"lon\":8.4,\"lat\":49.0},\"category\":1}"));
+
+        assertThat(location.getCategory()).isEqualTo(1);
+        assertThat(location.getLat()).isEqualTo(49.0);
+        assertThat(location.getLon()).isEqualTo(8.4);
+    }
+
+    @Test
+    void shouldOnlySearchTheAggregationsOfTheClusters() {
+        GeoBox geoBox = new GeoBox(new GeoPoint(49.05, 8.3), new GeoPoint(48.95, 8.5));
+
+        SearchSourceBuilder source = FoodPOIRepositoryCustomImpl.clusterSource(geoBox, Set.of(1), 17, 1000);
+
+        assertThat(source.size()).isZero();
+        assertThat(source.aggregations().getAggregatorFactories())
+            .extracting(AggregationBuilder::getName)
+            .containsExactlyInAnyOrder("filtered", "categories");
+    }
+}
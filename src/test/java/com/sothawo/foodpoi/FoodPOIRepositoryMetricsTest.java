@@ -0,0 +1,96 @@
+package com.sothawo.foodpoi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import reactor.core.publisher.Flux;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FoodPOIRepositoryMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final FoodPOIRepositoryMetrics metrics = new FoodPOIRepositoryMetrics(
+        new StaticListableBeanFactory(Map.of("registry", registry)).getBeanProvider(MeterRegistry.class));
+
+    private final FoodPOI foodPOI = new FoodPOI("1", 1, "Schlosscafé", new GeoPoint(49.0, 8.4));
+
+    @Test
+    void shouldRecordCallsAndHitsByMethod() {
+        FoodPOIRepository repository = (FoodPOIRepository) metrics.postProcessAfterInitialization(fakeRepository(),
+            "foodPOIRepository");
+
+        repository.findAll(Pageable.unpaged());
+        repository.findAll(Pageable.unpaged());
+        try (Stream<?> stream = repository.streamWithin(new GeoBox(new GeoPoint(50, 8), new GeoPoint(49, 9)),
+            Set.of())) {
+            assertThat(stream.count()).isEqualTo(3);
+        }
+        assertThatThrownBy(repository::count).isInstanceOf(IllegalStateException.class);
+
+        assertThat(registry.get("foodpoi.repository").tags("method", "findAll", "exception", "none").timer().count())
+            .isEqualTo(2);
+        assertThat(registry.get("foodpoi.repository.hits").tag("method", "findAll").summary().totalAmount())
+            .isEqualTo(2);
+        assertThat(registry.get("foodpoi.repository.hits").tag("method", "streamWithin").summary()
+            .totalAmount()).isEqualTo(3);
+        assertThat(registry.get("foodpoi.repository").tags("method", "count", "exception", "IllegalStateException")
+            .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRecordReactiveCallsWhenTheyComplete() {
+        ReactiveFoodPOIRepository repository = (ReactiveFoodPOIRepository) metrics.postProcessAfterInitialization(
+            Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ReactiveFoodPOIRepository.class},
+                (proxy, method, args) -> Flux.just(foodPOI, foodPOI).map(this::searchHit)),
+            "reactiveFoodPOIRepository");
+
+        Flux<?> hits = repository.searchNearest(new GeoPoint(49.0, 8.4), Set.of(), 2);
+        assertThat(registry.find("foodpoi.repository").timer()).isNull();
+
+        assertThat(hits.count().block()).isEqualTo(2);
+        assertThat(registry.get("foodpoi.repository").tags("repository", "ReactiveFoodPOIRepository", "method",
+            "searchNearest").timer().count()).isEqualTo(1);
+        assertThat(registry.get("foodpoi.repository.hits").tag("method", "searchNearest").summary().totalAmount())
+            .isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotWrapOtherBeans() {
+        Object bean = new Object();
+        assertThat(metrics.postProcessAfterInitialization(bean, "bean")).isSameAs(bean);
+    }
+
+    private SearchHit<FoodPOI> searchHit(FoodPOI foodPOI) {
+        return new SearchHit<>(foodPOI.getId(), 1.0f, null, null, foodPOI);
+    }
+
+    private FoodPOIRepository fakeRepository() {
+        return (FoodPOIRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{FoodPOIRepository.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "findAll":
+                        return new PageImpl<>(List.of(foodPOI));
+                    case "streamWithin":
+                        return Stream.of(foodPOI, foodPOI, foodPOI).map(this::searchHit);
+                    case "count":
+                        throw new IllegalStateException("no cluster");
+                    default:
+                        return null;
+                }
+            });
+    }
+}
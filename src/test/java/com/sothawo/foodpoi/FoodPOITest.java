@@ -0,0 +1,75 @@
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ResourceUtil;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoodPOITest {
+
+    @Test
+    void shouldSuggestTheNameFromEachWord() {
+        assertThat(FoodPOI.suggestInputs("Café am Schloss")).containsExactly("Café am Schloss", "am Schloss", "Schloss");
+        assertThat(FoodPOI.suggestInputs("  Pizzeria  (Da Mario)")).containsExactly("Pizzeria  (Da Mario)",
+            "Da Mario)", "Mario)");
+        assertThat(FoodPOI.suggestInputs("Café-Bar")).containsExactly("Café-Bar", "Bar");
+        assertThat(FoodPOI.suggestInputs("Pizza/Pasta")).containsExactly("Pizza/Pasta", "Pasta");
+        assertThat(FoodPOI.suggestInputs("Mario's Imbiss")).containsExactly("Mario's Imbiss", "Imbiss");
+        assertThat(FoodPOI.suggestInputs("A B C D E")).containsExactly("A B C D E", "B C D E", "C D E", "D E");
+        assertThat(FoodPOI.suggestInputs("")).isEmpty();
+    }
+
+    @Test
+    void shouldOrderTheGeoKeyByQuadrants() {
+        assertThat(FoodPOI.geoKey(-90, -180)).isZero();
+        assertThat(FoodPOI.geoKey(90, 180)).isEqualTo((1L << 62) - 1);
+        // the western half comes before the eastern half, the south before the north within each half
+        assertThat(FoodPOI.geoKey(-45, -90)).isLessThan(FoodPOI.geoKey(45, -90));
+        assertThat(FoodPOI.geoKey(45, -90)).isLessThan(FoodPOI.geoKey(-45, 90));
+        assertThat(FoodPOI.geoKey(-45, 90)).isLessThan(FoodPOI.geoKey(45, 90));
+    }
+
+    @Test
+    void shouldShareTheGeoKeyPrefixOfNearbyPoints() {
+        long schloss = FoodPOI.geoKey(49.0135, 8.4044);
+        long marktplatz = FoodPOI.geoKey(49.0093, 8.4037);
+        long paris = FoodPOI.geoKey(48.8566, 2.3522);
+
+        assertThat(Long.numberOfLeadingZeros(schloss ^ marktplatz))
+            .isGreaterThan(Long.numberOfLeadingZeros(schloss ^ paris) + 10);
+    }
+
+    @Test
+    void shouldMapAllFieldsOfTheEntity() throws IOException {
+        MappingElasticsearchConverter converter =
+            new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext());
+        converter.afterPropertiesSet();
+        Document source = converter.mapObject(FoodPOI.forIndex("42", 2, "Café am Schloss", new GeoPoint(49.0, 8.4)));
+
+        JsonNode mapping = new ObjectMapper().readTree(
+            ResourceUtil.readFileFromClasspath("/elasticsearch/foodpoi-mapping.json"));
+
+        assertThat(source).containsEntry("geoKey", FoodPOI.geoKey(49.0, 8.4));
+        assertThat(mapping.path("properties").fieldNames()).toIterable()
+            .containsExactlyInAnyOrderElementsOf(source.keySet());
+    }
+
+    @Test
+    void shouldOnlyDeriveTheIndexFieldsForIndexing() {
+        MappingElasticsearchConverter converter =
+            new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext());
+        converter.afterPropertiesSet();
+
+        Document source = converter.mapObject(new FoodPOI("42", 2, "Café am Schloss", new GeoPoint(49.0, 8.4)));
+
+        assertThat(source).doesNotContainKeys("suggest", "geoKey");
+    }
+}
@@ -3,6 +3,8 @@ package com.sothawo.foodpoi;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 @SpringBootTest
 class FoodPOIsApplicationTests {
 
@@ -10,4 +12,11 @@ class FoodPOIsApplicationTests {
     void contextLoads() {
     }
 
+    @Test
+    void shouldDetectHeadlessProfileInArguments() {
+        assertThat(FoodPOIApplication.isHeadless(new String[]{"--spring.profiles.active=headless"})).isTrue();
+        assertThat(FoodPOIApplication.isHeadless(new String[]{"--spring.profiles.active=dev,headless"})).isTrue();
+        assertThat(FoodPOIApplication.isHeadless(new String[]{"--spring.profiles.active=dev"})).isFalse();
+    }
+
 }
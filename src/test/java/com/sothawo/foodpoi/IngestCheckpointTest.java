@@ -0,0 +1,80 @@
+package com.sothawo.foodpoi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestCheckpointTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldMergeTheAcknowledgedRangesIntoTheOffset() throws IOException {
+        Path file = inputFile();
+        IngestCheckpoint.InputFile inputFile = new IngestCheckpoint.InputFile(file);
+
+        inputFile.acknowledge(new FoodPOICsvParser.Range(file, 200, 300));
+        inputFile.acknowledge(new FoodPOICsvParser.Range(file, 100, 200));
+        assertThat(inputFile.getOffset()).isZero();
+        assertThat(inputFile.getAcknowledgedRanges()).containsExactly(Map.entry(100L, 200L), Map.entry(200L, 300L));
+
+        inputFile.acknowledge(new FoodPOICsvParser.Range(file, 0, 100));
+        assertThat(inputFile.getOffset()).isEqualTo(300);
+        assertThat(inputFile.getAcknowledgedRanges()).isEmpty();
+        assertThat(inputFile.isAcknowledged(new FoodPOICsvParser.Range(file, 200, 300))).isTrue();
+        assertThat(inputFile.isAcknowledged(new FoodPOICsvParser.Range(file, 300, 400))).isFalse();
+    }
+
+    @Test
+    void shouldReadTheWrittenCheckpoint() throws IOException {
+        Path file = inputFile();
+        IngestCheckpoint checkpoint = new IngestCheckpoint();
+        checkpoint.setJobId("job");
+        checkpoint.setMode(IngestJob.Mode.DELTA);
+        checkpoint.setIndex("foodpois-1");
+        checkpoint.setParser(FoodPOIConfiguration.Ingest.Parser.MAPPED);
+        checkpoint.setRangeSize(100);
+        checkpoint.setAcknowledgedBatches(7);
+        IngestCheckpoint.InputFile inputFile = new IngestCheckpoint.InputFile(file);
+        inputFile.acknowledge(new FoodPOICsvParser.Range(file, 0, 100));
+        inputFile.acknowledge(new FoodPOICsvParser.Range(file, 200, 300));
+        checkpoint.getInputs().add(inputFile);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        IngestCheckpoint read = objectMapper.readValue(objectMapper.writeValueAsBytes(checkpoint),
+            IngestCheckpoint.class);
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(checkpoint);
+        IngestCheckpoint.InputFile readInputFile = read.getInputs().get(0);
+        assertThat(readInputFile.isAcknowledged(new FoodPOICsvParser.Range(file, 0, 100))).isTrue();
+        assertThat(readInputFile.isAcknowledged(new FoodPOICsvParser.Range(file, 100, 200))).isFalse();
+        assertThat(readInputFile.isAcknowledged(new FoodPOICsvParser.Range(file, 200, 300))).isTrue();
+        assertThat(readInputFile.hasChanged()).isFalse();
+    }
+
+    @Test
+    void shouldDetectAChangedInputFile() throws IOException {
+        Path file = inputFile();
+        IngestCheckpoint.InputFile inputFile = new IngestCheckpoint.InputFile(file);
+        assertThat(inputFile.hasChanged()).isFalse();
+
+        Files.write(file, new byte[]{'\n'}, StandardOpenOption.APPEND);
+        assertThat(inputFile.hasChanged()).isTrue();
+
+        Files.delete(file);
+        assertThat(inputFile.hasChanged()).isTrue();
+    }
+
+    private Path inputFile() throws IOException {
+        return Files.write(tempDir.resolve("input.csv"), new byte[400]);
+    }
+}
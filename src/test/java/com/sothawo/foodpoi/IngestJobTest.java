@@ -0,0 +1,41 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestJobTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldEstimateTheRemainingTimeFromTheBytesOfThisRun() throws IOException, InterruptedException {
+        Path file = Files.write(tempDir.resolve("input.csv"), "category|id|lat|lon|name\n1|1|49.0|8.4|Café\n".getBytes());
+        long size = Files.size(file);
+        // a resumed job that skips half of its input
+        IngestJob job = new IngestJob("job", IngestJob.Mode.FULL, 2 * size, size, 2, 1);
+        assertThat(job.getAcknowledgedRanges()).isEqualTo(1);
+        assertThat(job.getProcessedBytes()).isEqualTo(size);
+        assertThat(job.getEtaSeconds()).isEqualTo(-1);
+
+        FoodPOICsvParser parser = new FoodPOICsvParser();
+        job.running(parser, null);
+        Thread.sleep(5);
+        parser.parse(file, (category, id, lat, lon, name) -> {
+        });
+
+        assertThat(job.getProcessedBytes()).isEqualTo(2 * size);
+        assertThat(job.getBytesPerSecond()).isPositive().isLessThanOrEqualTo(size * 1000 / 5);
+        assertThat(job.getEtaSeconds()).isZero();
+
+        job.completed();
+        assertThat(job.getEtaSeconds()).isZero();
+        assertThat(job.getFinished()).isNotNull();
+    }
+}
@@ -0,0 +1,58 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MapLabelDiffTest {
+
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> reused = new ArrayList<>();
+
+    private final MapLabelDiff<String, StringBuilder> diff = new MapLabelDiff<>(object -> object,
+        (object, unusedLabel) -> {
+            if (unusedLabel != null) {
+                reused.add(unusedLabel + "->" + object);
+                unusedLabel.setLength(0);
+                return unusedLabel.append(object);
+            }
+            return new StringBuilder(object);
+        },
+        label -> added.add(label.toString()), label -> removed.add(label.toString()), 1);
+
+    @Test
+    void shouldOnlyAddAndRemoveTheChangedLabels() {
+        diff.update(List.of("a", "b", "c", "b"));
+        assertThat(added).containsExactly("a", "b", "c");
+        assertThat(diff.size()).isEqualTo(3);
+
+        StringBuilder labelB = diff.get("b");
+        added.clear();
+        diff.update(List.of("b", "c", "d"));
+
+        assertThat(added).containsExactly("d");
+        assertThat(removed).containsExactly("a");
+        assertThat(diff.get("b")).isSameAs(labelB);
+        assertThat(diff.get("a")).isNull();
+        assertThat(diff.getAdded()).isEqualTo(1);
+        assertThat(diff.getRemoved()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReuseRemovedLabels() {
+        diff.update(List.of("a", "b"));
+        StringBuilder labelA = diff.get("a");
+
+        diff.update(List.of("b", "c"));
+        assertThat(reused).containsExactly("a->c");
+        assertThat(diff.get("c")).isSameAs(labelA);
+
+        diff.update(List.of("d", "e", "f"));
+        // the pool only keeps one label
+        assertThat(reused).hasSize(2).startsWith("a->c");
+    }
+}
@@ -0,0 +1,78 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class NearestSearchRadiusTest {
+
+    private static final GeoPoint KARLSRUHE = new GeoPoint(49.0135, 8.4044);
+    private static final GeoPoint MARKTPLATZ = new GeoPoint(49.0093, 8.4037);
+    private static final GeoPoint PARIS = new GeoPoint(48.8566, 2.3522);
+
+    private static NearestSearchRadius nearestSearchRadius(int densityCells) {
+        FoodPOIConfiguration configuration = new FoodPOIConfiguration();
+        configuration.getNearest().setStartRadius(1.0);
+        configuration.getNearest().setRadiusGrowth(2.0);
+        configuration.getNearest().setMaxRadius(100.0);
+        configuration.getNearest().setRadiusMargin(1.5);
+        configuration.getNearest().setDensityCells(densityCells);
+        return new NearestSearchRadius(configuration);
+    }
+
+    @Test
+    void shouldStartWithTheConfiguredRadiusInAnUnknownArea() {
+        NearestSearchRadius radius = nearestSearchRadius(16);
+
+        assertThat(radius.start(KARLSRUHE, Set.of(), 5)).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldGrowTheRadiusUpToTheMaximum() {
+        NearestSearchRadius radius = nearestSearchRadius(16);
+
+        assertThat(radius.next(1.0)).isEqualTo(2.0);
+        assertThat(radius.next(50.0)).isEqualTo(100.0);
+        assertThat(radius.next(64.0)).isEqualTo(Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    void shouldEstimateTheRadiusFromTheDensityOfTheArea() {
+        NearestSearchRadius radius = nearestSearchRadius(16);
+
+        // 5 POIs within 0.4 km, so 20 POIs are expected within 0.8 km
+        radius.found(KARLSRUHE, Set.of(), 5, 0.4);
+
+        assertThat(radius.start(MARKTPLATZ, Set.of(), 5)).isCloseTo(0.6, within(1e-9));
+        assertThat(radius.start(MARKTPLATZ, Set.of(), 20)).isCloseTo(1.2, within(1e-9));
+        assertThat(radius.start(MARKTPLATZ, Set.of(1), 5)).isEqualTo(1.0);
+        assertThat(radius.start(PARIS, Set.of(), 5)).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldSearchAllPOIsInASparseArea() {
+        NearestSearchRadius radius = nearestSearchRadius(16);
+
+        radius.found(KARLSRUHE, Set.of(1), 1, 90.0);
+
+        assertThat(radius.start(KARLSRUHE, Set.of(1), 5)).isEqualTo(Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    void shouldDropTheLeastRecentlyUsedArea() {
+        NearestSearchRadius radius = nearestSearchRadius(2);
+
+        radius.found(KARLSRUHE, Set.of(), 5, 0.4);
+        radius.found(PARIS, Set.of(), 5, 0.4);
+        radius.start(KARLSRUHE, Set.of(), 5);
+        radius.found(PARIS, Set.of(1), 5, 0.4);
+
+        assertThat(radius.size()).isEqualTo(2);
+        assertThat(radius.start(KARLSRUHE, Set.of(), 5)).isCloseTo(0.6, within(1e-9));
+        assertThat(radius.start(PARIS, Set.of(), 5)).isEqualTo(1.0);
+    }
+}
@@ -0,0 +1,13 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StartupReporterTest {
+
+    @Test
+    void shouldReportResidentMemory() {
+        assertThat(StartupReporter.residentBytes()).isPositive();
+    }
+}
@@ -0,0 +1,91 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ViewportDecimatorTest {
+
+    private static final int ZOOM = 14;
+
+    @Test
+    void shouldKeepTheNumberOfPOIsIndependentOfTheDensity() {
+        ViewportDecimator decimator = new ViewportDecimator(32, 1, Map.of());
+
+        // a zoom 14 tile has 256 x 256 pixels, so 8 x 8 cells of 32 pixels
+        ViewportTileCache.Tile tile = ViewportTileCache.Tile.of(49.013517, 8.404435, ZOOM);
+        List<FoodPOILocation> sparse = randomLocationsIn(tile, 100);
+        List<FoodPOILocation> dense = randomLocationsIn(tile, 10_000);
+
+        assertThat(decimator.decimate(sparse, ZOOM)).hasSizeLessThanOrEqualTo(64);
+        assertThat(decimator.decimate(dense, ZOOM)).hasSize(64);
+        assertThat(decimator.decimate(dense, ZOOM + 2)).hasSize(16 * 64);
+    }
+
+    @Test
+    void shouldKeepTheSamePOIsWhenTheInputChanges() {
+        ViewportDecimator decimator = new ViewportDecimator(32, 2, Map.of());
+        ViewportTileCache.Tile tile = ViewportTileCache.Tile.of(49.013517, 8.404435, ZOOM);
+        List<FoodPOILocation> locations = randomLocationsIn(tile, 2000);
+
+        List<FoodPOILocation> shuffled = new ArrayList<>(locations);
+        Collections.shuffle(shuffled, new Random(42));
+        // panning loads the POIs of the neighbour tile as well
+        List<FoodPOILocation> panned = new ArrayList<>(shuffled);
+        panned.addAll(randomLocationsIn(new ViewportTileCache.Tile(ZOOM, tile.getX() + 1, tile.getY()), 2000));
+
+        List<FoodPOILocation> kept = decimator.decimate(locations, ZOOM);
+        assertThat(decimator.decimate(shuffled, ZOOM)).containsExactlyInAnyOrderElementsOf(kept);
+        assertThat(new HashSet<>(decimator.decimate(panned, ZOOM))).containsAll(kept);
+    }
+
+    @Test
+    void shouldKeepTheSamePOIsWhenTheTilesAreDecimatedFirst() {
+        ViewportDecimator decimator = new ViewportDecimator(32, 2, Map.of(1, 10));
+        ViewportTileCache.Tile tile = ViewportTileCache.Tile.of(49.013517, 8.404435, ZOOM - 2);
+        List<FoodPOILocation> locations = new ArrayList<>();
+        List<FoodPOILocation> decimatedQuarters = new ArrayList<>();
+        for (int quarter = 0; quarter < 4; quarter++) {
+            List<FoodPOILocation> quarterLocations = randomLocationsIn(new ViewportTileCache.Tile(ZOOM - 1,
+                2 * tile.getX() + quarter % 2, 2 * tile.getY() + quarter / 2), 5000);
+            locations.addAll(quarterLocations);
+            decimatedQuarters.addAll(decimator.decimate(quarterLocations, ZOOM));
+        }
+
+        assertThat(decimator.decimate(decimatedQuarters, ZOOM))
+            .containsExactlyInAnyOrderElementsOf(decimator.decimate(locations, ZOOM));
+    }
+
+    @Test
+    void shouldPreferCategoriesWithHigherPriority() {
+        ViewportDecimator decimator = new ViewportDecimator(32, 1, Map.of(2, 10));
+        List<FoodPOILocation> locations = List.of(
+            new FoodPOILocation("a", 1, 49.013517, 8.404435),
+            new FoodPOILocation("b", 2, 49.013518, 8.404436),
+            new FoodPOILocation("c", 1, 49.013519, 8.404437));
+
+        assertThat(decimator.decimate(locations, ZOOM)).extracting(FoodPOILocation::getId).containsExactly("b");
+        assertThat(new ViewportDecimator(32, 0, Map.of()).decimate(locations, ZOOM)).hasSize(3);
+    }
+
+    private static List<FoodPOILocation> randomLocationsIn(ViewportTileCache.Tile tile, int count) {
+        Random random = new Random(tile.hashCode());
+        double top = tile.getGeoBox().getTopLeft().getLat();
+        double left = tile.getGeoBox().getTopLeft().getLon();
+        double bottom = tile.getGeoBox().getBottomRight().getLat();
+        double right = tile.getGeoBox().getBottomRight().getLon();
+        List<FoodPOILocation> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(new FoodPOILocation(tile + "-" + i, random.nextInt(3),
+                bottom + random.nextDouble() * (top - bottom), left + random.nextDouble() * (right - left)));
+        }
+        return locations;
+    }
+}
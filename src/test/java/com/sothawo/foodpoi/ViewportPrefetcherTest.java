@@ -0,0 +1,69 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class ViewportPrefetcherTest {
+
+    private static final int ZOOM = 14;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** about one cached tile of zoom 12 around Karlsruhe castle */
+    private static final GeoBox VIEWPORT = new GeoBox(new GeoPoint(49.03, 8.38), new GeoPoint(49.00, 8.43));
+
+    private final ViewportPrefetcher prefetcher = new ViewportPrefetcher(2, Duration.ofSeconds(1));
+
+    @Test
+    void shouldPrefetchInPanDirectionFirst() {
+        // panning east
+        for (int i = 0; i < 5; i++) {
+            prefetcher.moved(49.015, 8.40 + i * 0.01, ZOOM, i * 100 * MILLIS);
+        }
+        assertThat(prefetcher.getVelocityX()).isGreaterThan(0);
+        assertThat(prefetcher.getVelocityY()).isEqualTo(0, offset(1e-12));
+
+        List<ViewportPrefetcher.Target> targets = prefetcher.plan(VIEWPORT, ZOOM, target -> false, 100);
+
+        ViewportTileCache.Tile east = ViewportTileCache.Tile.of(49.015, 8.43, 12);
+        ViewportPrefetcher.Target first = targets.get(0);
+        assertThat(first.getZoom()).isEqualTo(ZOOM);
+        assertThat(first.getTile().getX()).isGreaterThan(east.getX());
+        assertThat(targets).doesNotContainAnyElementsOf(
+            ViewportTileCache.Tile.covering(VIEWPORT, 12).stream()
+                .map(tile -> new ViewportPrefetcher.Target(ZOOM, tile))
+                .collect(Collectors.toList()));
+        assertThat(targets).anyMatch(target -> target.getZoom() == ZOOM + 1)
+            .anyMatch(target -> target.getZoom() == ZOOM - 1);
+        assertThat(targets).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void shouldKeepTheBudgetAndSkipCachedTiles() {
+        ViewportTileCache.Tile west = ViewportTileCache.Tile.of(49.015, 8.38, 12);
+        ViewportTileCache.Tile cached = new ViewportTileCache.Tile(12, west.getX() - 1, west.getY());
+
+        List<ViewportPrefetcher.Target> targets = prefetcher.plan(VIEWPORT, ZOOM,
+            target -> target.getTile().equals(cached), 3);
+
+        assertThat(targets).hasSize(3).noneMatch(target -> target.getTile().equals(cached));
+    }
+
+    @Test
+    void shouldResetTheVelocityWhenZooming() {
+        prefetcher.moved(49.015, 8.40, ZOOM, 0);
+        prefetcher.moved(49.015, 8.41, ZOOM, 100 * MILLIS);
+        assertThat(prefetcher.getVelocityX()).isGreaterThan(0);
+
+        prefetcher.moved(49.015, 8.41, ZOOM + 1, 200 * MILLIS);
+
+        assertThat(prefetcher.getVelocityX()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,108 @@
+package com.sothawo.foodpoi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.geo.GeoBox;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ViewportTileCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<ViewportTileCache.Tile> loaded = new ArrayList<>();
+    private final Function<List<ViewportTileCache.Tile>, Map<ViewportTileCache.Tile, String>> loader = tiles -> {
+        loaded.addAll(tiles);
+        return tiles.stream().collect(Collectors.toMap(Function.identity(), ViewportTileCache.Tile::toString));
+    };
+
+    @Test
+    void shouldComputeTheTilesCoveringABox() {
+        // Karlsruhe castle is in tile 14/8574/5625
+        GeoBox geoBox = new GeoBox(new GeoPoint(49.02, 8.39), new GeoPoint(49.00, 8.42));
+
+        List<ViewportTileCache.Tile> tiles = ViewportTileCache.Tile.covering(geoBox, 14);
+
+        assertThat(tiles).contains(new ViewportTileCache.Tile(14, 8574, 5625));
+        assertThat(ViewportTileCache.Tile.covering(geoBox, 0)).containsExactly(new ViewportTileCache.Tile(0, 0, 0));
+        for (ViewportTileCache.Tile tile : tiles) {
+            GeoBox tileBox = tile.getGeoBox();
+            assertThat(tileBox.getTopLeft().getLat()).isGreaterThan(geoBox.getBottomRight().getLat());
+            assertThat(tileBox.getBottomRight().getLat()).isLessThan(geoBox.getTopLeft().getLat());
+            assertThat(tileBox.getTopLeft().getLon()).isLessThan(geoBox.getBottomRight().getLon());
+            assertThat(tileBox.getBottomRight().getLon()).isGreaterThan(geoBox.getTopLeft().getLon());
+        }
+    }
+
+    @Test
+    void shouldComputeTheTilesCoveringABoxAcrossTheAntimeridian() {
+        // from Fiji to Samoa, tiles 3/7/4 and 3/0/4
+        GeoBox geoBox = new GeoBox(new GeoPoint(-13.0, 177.0), new GeoPoint(-19.0, -171.0));
+
+        assertThat(ViewportTileCache.Tile.covering(geoBox, 3)).containsExactly(
+            new ViewportTileCache.Tile(3, 7, 4), new ViewportTileCache.Tile(3, 0, 4));
+        assertThat(ViewportTileCache.Tile.covering(geoBox, 0)).containsExactly(new ViewportTileCache.Tile(0, 0, 0));
+    }
+
+    @Test
+    void shouldOnlyLoadMissingTiles() {
+        ViewportTileCache<String> cache = new ViewportTileCache<>(10, Duration.ofMinutes(1), now::get);
+        ViewportTileCache.Tile a = new ViewportTileCache.Tile(1, 0, 0);
+        ViewportTileCache.Tile b = new ViewportTileCache.Tile(1, 1, 0);
+        ViewportTileCache.Tile c = new ViewportTileCache.Tile(1, 0, 1);
+
+        assertThat(cache.get(List.of(a, b), loader)).containsOnlyKeys(a, b);
+        assertThat(cache.get(List.of(b, c), loader)).containsEntry(b, "1/1/0").containsEntry(c, "1/0/1");
+
+        assertThat(loaded).containsExactly(a, b, c);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedAndExpiredTiles() {
+        ViewportTileCache<String> cache = new ViewportTileCache<>(2, Duration.ofNanos(100), now::get);
+        ViewportTileCache.Tile a = new ViewportTileCache.Tile(1, 0, 0);
+        ViewportTileCache.Tile b = new ViewportTileCache.Tile(1, 1, 0);
+        ViewportTileCache.Tile c = new ViewportTileCache.Tile(1, 0, 1);
+
+        cache.get(List.of(a, b), loader);
+        cache.get(List.of(a), loader);
+        cache.get(List.of(c), loader);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+
+        loaded.clear();
+        cache.get(List.of(a, c), loader);
+        assertThat(loaded).isEmpty();
+
+        now.addAndGet(101);
+        cache.get(List.of(a), loader);
+        assertThat(loaded).containsExactly(a);
+    }
+
+    @Test
+    void shouldPrefetchOnlyMissingTilesWithoutCountingMisses() {
+        ViewportTileCache<String> cache = new ViewportTileCache<>(10, Duration.ofMinutes(1), now::get);
+        ViewportTileCache.Tile a = new ViewportTileCache.Tile(1, 0, 0);
+        ViewportTileCache.Tile b = new ViewportTileCache.Tile(1, 1, 0);
+
+        cache.get(List.of(a), loader);
+        cache.prefetch(List.of(a, b), loader);
+
+        assertThat(loaded).containsExactly(a, b);
+        assertThat(cache.isCached(b)).isTrue();
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getPrefetched()).isEqualTo(1);
+
+        assertThat(cache.get(List.of(b), loader)).containsEntry(b, "1/1/0");
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+}